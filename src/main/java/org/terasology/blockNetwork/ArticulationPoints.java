@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the critical nodes of each network, the nodes whose removal would split the network, so removing
+ * any other node does not need to search the network. They are found with Tarjan's algorithm for articulation
+ * points, which also finds the blocks of the network, the parts that stay connected after removing any one node.
+ *
+ * Between the searches, the nodes marked as critical are kept a superset of the critical nodes:
+ * <ul>
+ * <li>A node added with a single connection into each of the networks it joins can only make its neighbours
+ * critical, and itself if it joins more than one network.</li>
+ * <li>Removing a node that is not critical can only make other nodes of its block critical, so the block is marked
+ * as changed and its nodes count as critical.</li>
+ * <li>Any other change leaves the network without the information until it is searched again.</li>
+ * </ul>
+ * A network is searched again when a query needs it, and when a removal needs it once the split searches that did
+ * not split the network have taken about as long as a search since the last one, so the searches cost at most about
+ * as much as the split searches they could have saved.
+ */
+class ArticulationPoints {
+    // a search for critical nodes takes about as long as split searches visiting this many times the nodes
+    private static final int SEARCH_COST = 3;
+
+    private final NetworkGraph graph;
+    private final Map<Network, NetworkInfo> networkInfos = Maps.newHashMap();
+    // ids of the nodes that may be critical, and the block of each node that is not
+    private final BitSet criticalIds = new BitSet();
+    private int[] blockIds = new int[16];
+    private int nextBlockId;
+
+    private final NodeIdIntMap discoveryTimes = new NodeIdIntMap();
+    private final NodeIdIntMap lowTimes = new NodeIdIntMap();
+    private final IntArrayDeque searchedIds = new IntArrayDeque();
+    private final IntArrayDeque searchedEdges = new IntArrayDeque();
+    private final IntArrayDeque blockNodeIds = new IntArrayDeque();
+
+    ArticulationPoints(NetworkGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * A node has been added without any connections, in a new network.
+     */
+    void addedAlone(int id, Network network) {
+        NetworkInfo info = getInfo(network);
+        info.known = true;
+        info.exact = true;
+        setBlock(id, nextBlockId++);
+    }
+
+    /**
+     * A node has been added and connected, and the networks it is connected to are not merged yet.
+     */
+    void addedConnected(int id) {
+        int[] edges = graph.getEdges();
+        int start = graph.getEdgeStart(id);
+        int end = start + graph.getEdgeCount(id);
+        boolean singleConnections = true;
+        int networkCount = 0;
+        for (int i = start; i < end; i++) {
+            Network network = graph.getNetwork(edges[i]);
+            boolean firstInNetwork = true;
+            for (int j = start; j < i; j++) {
+                if (graph.getNetwork(edges[j]) == network) {
+                    // connected into the network more than once, which may close a cycle through many blocks
+                    singleConnections = false;
+                    firstInNetwork = false;
+                }
+            }
+            if (firstInNetwork) {
+                networkCount++;
+            }
+        }
+
+        for (int i = start; i < end; i++) {
+            NetworkInfo info = getInfo(graph.getNetwork(edges[i]));
+            if (singleConnections) {
+                criticalIds.set(edges[i]);
+                info.exact = false;
+            } else {
+                info.known = false;
+            }
+        }
+        if (networkCount > 1) {
+            criticalIds.set(id);
+        } else {
+            setBlock(id, nextBlockId++);
+        }
+    }
+
+    /**
+     * The source network has been merged into the target one.
+     */
+    void merged(Network target, Network source) {
+        NetworkInfo targetInfo = getInfo(target);
+        NetworkInfo sourceInfo = getInfo(source);
+        targetInfo.known &= sourceInfo.known;
+        targetInfo.exact = false;
+        targetInfo.changedBlocks.addAll(sourceInfo.changedBlocks);
+        targetInfo.splitSearchWork += sourceInfo.splitSearchWork;
+        networkInfos.remove(source);
+    }
+
+    /**
+     * The network has changed in a way that is not kept track of.
+     */
+    void invalidate(Network network) {
+        getInfo(network).known = false;
+    }
+
+    void forget(Network network) {
+        networkInfos.remove(network);
+    }
+
+    /**
+     * Called before a node is removed from its network.
+     *
+     * @param networkSize number of nodes in the network, including the node
+     * @return true if the network may be split by the removal
+     */
+    boolean removing(int id, Network network, int networkSize) {
+        NetworkInfo info = getInfo(network);
+        if (graph.getEdgeCount(id) <= 1) {
+            // the rest stays connected, and only the neighbour may stop being critical
+            info.exact = false;
+            return false;
+        }
+        if (!isSafe(id, info) && info.splitSearchWork >= networkSize * SEARCH_COST) {
+            search(id, info);
+        }
+        if (isSafe(id, info)) {
+            info.changedBlocks.add(blockIds[id]);
+            info.exact = false;
+            return false;
+        }
+        // a node marked as critical may be in any number of blocks, all of which may change
+        info.known = false;
+        return true;
+    }
+
+    /**
+     * A split search through the network has been done.
+     *
+     * @param visitedCount number of nodes visited by the search
+     * @param split        whether the network has been split
+     */
+    void splitSearched(Network network, int visitedCount, boolean split) {
+        NetworkInfo info = getInfo(network);
+        if (split) {
+            info.known = false;
+        } else {
+            // only the searches that did not split the network could have been skipped
+            info.splitSearchWork += visitedCount;
+        }
+    }
+
+    /**
+     * @return true if removing the node would split its network
+     */
+    boolean isCritical(int id, Network network) {
+        NetworkInfo info = getInfo(network);
+        if (isSafe(id, info)) {
+            return false;
+        }
+        if (!info.known || !info.exact) {
+            search(id, info);
+        }
+        return criticalIds.get(id);
+    }
+
+    private boolean isSafe(int id, NetworkInfo info) {
+        return info.known && !criticalIds.get(id) && !info.changedBlocks.contains(blockIds[id]);
+    }
+
+    private NetworkInfo getInfo(Network network) {
+        NetworkInfo info = networkInfos.get(network);
+        if (info == null) {
+            info = new NetworkInfo();
+            networkInfos.put(network, info);
+        }
+        return info;
+    }
+
+    private void setBlock(int id, int blockId) {
+        if (id >= blockIds.length) {
+            blockIds = Arrays.copyOf(blockIds, Math.max(blockIds.length * 2, id + 1));
+        }
+        blockIds[id] = blockId;
+        criticalIds.clear(id);
+    }
+
+    /**
+     * Tarjan's algorithm for articulation points, with explicit stacks instead of recursion. Each node gets the
+     * time it was discovered at, and the lowest discovery time reachable from its subtree through one connection
+     * that does not belong to the tree. A node is critical if the subtree of one of its children can not reach above
+     * it, or if it is the root and has more than one child.
+     *
+     * @param rootId any node of the network
+     */
+    private void search(int rootId, NetworkInfo info) {
+        int[] edges = graph.getEdges();
+        discoveryTimes.clear();
+        lowTimes.clear();
+        searchedIds.clear();
+        searchedEdges.clear();
+        blockNodeIds.clear();
+
+        int time = 0;
+        int rootChildren = 0;
+        discoveryTimes.put(rootId, time);
+        lowTimes.put(rootId, time++);
+        criticalIds.clear(rootId);
+        searchedIds.addLast(rootId);
+        searchedEdges.addLast(graph.getEdgeStart(rootId));
+        blockNodeIds.addLast(rootId);
+        setBlock(rootId, -1);
+        while (!searchedIds.isEmpty()) {
+            int currentId = searchedIds.get(searchedIds.size() - 1);
+            int edge = searchedEdges.pollLast();
+            if (edge < graph.getEdgeStart(currentId) + graph.getEdgeCount(currentId)) {
+                searchedEdges.addLast(edge + 1);
+                int connectedId = edges[edge];
+                if (!discoveryTimes.contains(connectedId)) {
+                    if (currentId == rootId) {
+                        rootChildren++;
+                    }
+                    discoveryTimes.put(connectedId, time);
+                    lowTimes.put(connectedId, time++);
+                    setBlock(connectedId, -1);
+                    searchedIds.addLast(connectedId);
+                    searchedEdges.addLast(graph.getEdgeStart(connectedId));
+                    blockNodeIds.addLast(connectedId);
+                } else {
+                    lowTimes.put(currentId, Math.min(lowTimes.get(currentId, 0), discoveryTimes.get(connectedId, 0)));
+                }
+                continue;
+            }
+
+            // all the connections of the node are searched
+            searchedIds.pollLast();
+            if (searchedIds.isEmpty()) {
+                break;
+            }
+            int parentId = searchedIds.get(searchedIds.size() - 1);
+            int low = lowTimes.get(currentId, 0);
+            lowTimes.put(parentId, Math.min(lowTimes.get(parentId, 0), low));
+            if (low >= discoveryTimes.get(parentId, 0)) {
+                // the subtree of the node is only connected to the rest through the parent, which closes a block
+                if (parentId != rootId) {
+                    criticalIds.set(parentId);
+                }
+                int blockId = nextBlockId++;
+                int blockNodeId;
+                do {
+                    blockNodeId = blockNodeIds.pollLast();
+                    blockIds[blockNodeId] = blockId;
+                } while (blockNodeId != currentId);
+                if (blockIds[parentId] == -1) {
+                    blockIds[parentId] = blockId;
+                }
+            }
+        }
+        if (rootChildren > 1) {
+            criticalIds.set(rootId);
+        } else if (rootChildren == 0) {
+            blockIds[rootId] = nextBlockId++;
+        }
+
+        info.known = true;
+        info.exact = true;
+        info.changedBlocks.clear();
+        info.splitSearchWork = 0;
+    }
+
+    private static final class NetworkInfo {
+        // whether the critical nodes and blocks are kept track of
+        private boolean known;
+        // whether the nodes marked as critical are exactly the critical nodes
+        private boolean exact;
+        private final Set<Integer> changedBlocks = Sets.newHashSet();
+        // nodes visited by split searches that did not split the network, since the network was last searched
+        private int splitSearchWork;
+    }
+}
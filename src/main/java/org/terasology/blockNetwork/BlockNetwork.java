@@ -2,19 +2,23 @@ package org.terasology.blockNetwork;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terasology.math.Side;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author Marcin Sciesinski <marcins78@gmail.com>
@@ -23,19 +27,390 @@ public class BlockNetwork {
     private static final Logger logger = LoggerFactory.getLogger(BlockNetwork.class);
 
     private Map<Network, Set<NetworkNode>> allNetworks = Maps.newHashMap();
-    // an adjacency list of nodes connecting to each other
-    private Map<NetworkNode, Set<NetworkNode>> allNetworkNodes = Maps.newHashMap();
+    // the nodes with the connections between them, and the network each node belongs to
+    private NetworkGraph graph = new NetworkGraph();
+    // the nodes whose removal would split their network, so removing other nodes does not need a split search
+    private ArticulationPoints articulationPoints = new ArticulationPoints(graph);
+    // spatial nodes indexed by their location, used to find connection candidates without checking all the nodes
+    private NodeLocationIndex spatialNodes = new NodeLocationIndex();
+    // number of connections between spatial nodes that are not in the same or adjacent blocks
+    private int longConnectionCount;
 
     private Set<NetworkTopologyListener> listeners = Sets.newLinkedHashSet();
 
     private boolean mutating = false;
 
+    private volatile NetworkPathCache pathCache;
+
+    private EdgeTagFunction edgeTagFunction;
+
+    // whether each node is in the block network after the changes waiting for commit, null if no batch is open
+    private Map<NetworkNode, Boolean> batchChanges;
+
+    // whether removals leave splitting the networks to the next query that needs it
+    private boolean lazySplitting;
+    // the networks that may have been split by removals, with the remaining neighbours of the removed nodes
+    private Map<Network, Set<NetworkNode>> dirtyNetworks = Maps.newLinkedHashMap();
+
+    // the networks that have not been modified since are shared with the next snapshot
+    private BlockNetworkSnapshot lastSnapshot;
+
+    // null if the network is only used by one thread
+    private final ReadWriteLock lock;
+    // either the buffers of the only thread, or the buffers of each thread
+    private final SearchBuffers searchBuffers;
+    private final ThreadLocal<SearchBuffers> threadSearchBuffers;
+
+    public BlockNetwork() {
+        this(false);
+    }
+
+    /**
+     * @param threadSafe whether the network can be used by multiple threads at once. Queries run in parallel with
+     *                   each other, while modifications wait for the running queries and run alone, notifying the
+     *                   listeners on the modifying thread. Collections of networks and nodes are then returned as
+     *                   copies instead of views.
+     */
+    public BlockNetwork(boolean threadSafe) {
+        if (threadSafe) {
+            lock = new ReentrantReadWriteLock();
+            searchBuffers = null;
+            threadSearchBuffers = new ThreadLocal<SearchBuffers>() {
+                @Override
+                protected SearchBuffers initialValue() {
+                    return new SearchBuffers();
+                }
+            };
+        } else {
+            lock = null;
+            searchBuffers = new SearchBuffers();
+            threadSearchBuffers = null;
+        }
+    }
+
+    public boolean isThreadSafe() {
+        return lock != null;
+    }
+
+    private void lockForReading() {
+        if (lock != null) {
+            lock.readLock().lock();
+        }
+    }
+
+    private void unlockForReading() {
+        if (lock != null) {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the read lock once the networks left for lazy splitting are split, for the queries that need to see
+     * the networks as they are. Queries made by listeners during a modification see the networks unsplit.
+     */
+    private void lockForQuerying() {
+        lockForReading();
+        while (!dirtyNetworks.isEmpty() && !mutating) {
+            unlockForReading();
+            lockForWriting();
+            try {
+                splitDirtyNetworks();
+            } finally {
+                unlockForWriting();
+            }
+            lockForReading();
+        }
+    }
+
+    private void lockForWriting() {
+        if (lock != null) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockForWriting() {
+        if (lock != null) {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private SearchBuffers getSearchBuffers() {
+        return threadSearchBuffers != null ? threadSearchBuffers.get() : searchBuffers;
+    }
+
+    /**
+     * @param lazySplitting whether removals only mark the networks they may have split, instead of splitting them
+     *                      right away. All the marked networks are split at once by flush(), or by the next query
+     *                      that needs the networks, and the listeners are notified about the splits only then. This
+     *                      is faster when many nodes are removed between queries. Turning it off splits the marked
+     *                      networks.
+     */
+    public void setLazySplitting(boolean lazySplitting) {
+        lockForWriting();
+        try {
+            validateNotMutating();
+            this.lazySplitting = lazySplitting;
+            if (!lazySplitting) {
+                splitDirtyNetworks();
+            }
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    public boolean isLazySplitting() {
+        lockForReading();
+        try {
+            return lazySplitting;
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * Splits the networks that removals have left for lazy splitting.
+     */
+    public void flush() {
+        lockForWriting();
+        try {
+            validateNotMutating();
+            splitDirtyNetworks();
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    private void splitDirtyNetworks() {
+        if (dirtyNetworks.isEmpty()) {
+            return;
+        }
+        Map<Network, Set<NetworkNode>> networks = dirtyNetworks;
+        dirtyNetworks = Maps.newLinkedHashMap();
+        mutating = true;
+        try {
+            for (Map.Entry<Network, Set<NetworkNode>> network : networks.entrySet()) {
+                splitNetwork(network.getKey(), network.getValue());
+            }
+        } finally {
+            mutating = false;
+        }
+    }
+
+    /**
+     * Takes an immutable snapshot of all the networks, which other threads can query without ever blocking this
+     * block network. Only the networks modified since the previous snapshot are copied, the rest are shared with
+     * it.
+     */
+    public BlockNetworkSnapshot snapshot() {
+        // exclusive, as the snapshot reuses the search buffers and the previous snapshot
+        lockForWriting();
+        try {
+            validateNotMutating();
+            splitDirtyNetworks();
+            ImmutableMap.Builder<Network, NetworkSnapshot> networkSnapshots = ImmutableMap.builder();
+            NodeIdIntMap nodeIndexes = getSearchBuffers().clearedMap(0);
+            for (Map.Entry<Network, Set<NetworkNode>> networkNodes : allNetworks.entrySet()) {
+                BasicNetwork network = (BasicNetwork) networkNodes.getKey();
+                NetworkSnapshot networkSnapshot = lastSnapshot != null ? lastSnapshot.getNetworkSnapshot(network) : null;
+                if (networkSnapshot == null || networkSnapshot.getModificationCount() != network.modificationCount) {
+                    networkSnapshot = new NetworkSnapshot(network, network.modificationCount, networkNodes.getValue(), graph, nodeIndexes);
+                }
+                networkSnapshots.put(network, networkSnapshot);
+            }
+            lastSnapshot = new BlockNetworkSnapshot(lastSnapshot, networkSnapshots.build(), graph.size());
+            return lastSnapshot;
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Starts collecting the added, removed and updated nodes instead of applying each change right away. Queries
+     * see the block network as it was before the batch until the batch is committed.
+     */
+    public void beginBatch() {
+        lockForWriting();
+        try {
+            validateNotMutating();
+            if (batchChanges != null) {
+                throw new IllegalStateException("A batch is open already");
+            }
+            batchChanges = Maps.newLinkedHashMap();
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    public boolean isBatchOpen() {
+        lockForReading();
+        try {
+            return batchChanges != null;
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * Applies all the changes of the batch at once. The networks are split and merged only once, and listeners are
+     * notified only about the net changes of the whole batch, as described in CoalescingTopologyDispatcher. Merges
+     * are notified as the nodes moving between the networks, even to merge listeners.
+     */
+    public void commit() {
+        lockForWriting();
+        try {
+            validateNotMutating();
+            if (batchChanges == null) {
+                throw new IllegalStateException("No batch is open");
+            }
+            Map<NetworkNode, Boolean> changes = batchChanges;
+            batchChanges = null;
+
+            List<NetworkNode> removedNodes = Lists.newArrayList();
+            List<NetworkNode> addedNodes = Lists.newArrayList();
+            for (Map.Entry<NetworkNode, Boolean> change : changes.entrySet()) {
+                if (change.getValue() && !graph.contains(change.getKey())) {
+                    addedNodes.add(change.getKey());
+                } else if (!change.getValue() && graph.contains(change.getKey())) {
+                    removedNodes.add(change.getKey());
+                }
+            }
+
+            Set<NetworkTopologyListener> batchListeners = listeners;
+            CoalescingTopologyDispatcher dispatcher = new CoalescingTopologyDispatcher(new NotifyingListener());
+            listeners = Collections.<NetworkTopologyListener>singleton(dispatcher);
+            try {
+                // adding first keeps the networks connected by the added nodes from being split
+                addNetworkingBlocks(addedNodes);
+                removeNetworkingBlocks(removedNodes);
+            } finally {
+                listeners = batchListeners;
+            }
+            mutating = true;
+            try {
+                dispatcher.flush();
+            } finally {
+                mutating = false;
+            }
+        } finally {
+            unlockForWriting();
+        }
+    }
+
     public void addTopologyListener(NetworkTopologyListener listener) {
-        listeners.add(listener);
+        lockForWriting();
+        try {
+            listeners.add(listener);
+        } finally {
+            unlockForWriting();
+        }
     }
 
     public void removeTopologyListener(NetworkTopologyListener listener) {
-        listeners.remove(listener);
+        lockForWriting();
+        try {
+            listeners.remove(listener);
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Enables caching of path query results, including the distance queries. A cached result is used until the
+     * network of the start node is modified.
+     *
+     * @param maxSize maximum number of cached results, the least recently used results are evicted first,
+     *                0 disables the cache
+     */
+    public void setPathCacheSize(int maxSize) {
+        pathCache = maxSize > 0 ? new NetworkPathCache(maxSize) : null;
+    }
+
+    public long getPathCacheHits() {
+        return pathCache != null ? pathCache.getHits() : 0;
+    }
+
+    public long getPathCacheMisses() {
+        return pathCache != null ? pathCache.getMisses() : 0;
+    }
+
+    /**
+     * Sets the function that finds the tag of every connection, which edge filters and paths get together with the
+     * side of the connection. The tags of the existing connections are found right away.
+     *
+     * @param edgeTagFunction null to not tag the connections
+     */
+    public void setEdgeTagFunction(EdgeTagFunction edgeTagFunction) {
+        lockForWriting();
+        try {
+            validateNotMutating();
+            this.edgeTagFunction = edgeTagFunction;
+            graph.setEdgeTagsEnabled(edgeTagFunction != null);
+            if (edgeTagFunction != null) {
+                int[] edges = graph.getEdges();
+                int[] edgeTags = graph.getEdgeTags();
+                for (int id = 0; id < graph.getIdLimit(); id++) {
+                    NetworkNode node = graph.getNode(id);
+                    if (node != null) {
+                        for (int i = graph.getEdgeStart(id), end = i + graph.getEdgeCount(id); i < end; i++) {
+                            edgeTags[i] = edgeTagFunction.getTag(node, graph.getNode(edges[i]));
+                        }
+                    }
+                }
+            }
+            // paths found before have the old tags
+            for (Network network : allNetworks.keySet()) {
+                markModified(network);
+            }
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * @return side of the from node that the connection to the other node leaves through, null if the nodes are
+     * not connected or either of them is not spatial
+     */
+    public Side getConnectionSide(NetworkNode from, NetworkNode to) {
+        lockForReading();
+        try {
+            int edge = findEdge(from, to);
+            return edge != -1 ? getEdgeSide(edge) : null;
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * @return tag of the connection from one node to the other, 0 if the nodes are not connected or there is no
+     * edge tag function
+     */
+    public int getConnectionTag(NetworkNode from, NetworkNode to) {
+        lockForReading();
+        try {
+            int edge = findEdge(from, to);
+            return edge != -1 ? getEdgeTag(edge) : 0;
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    private int findEdge(NetworkNode from, NetworkNode to) {
+        int fromId = graph.getId(from);
+        int toId = graph.getId(to);
+        return fromId != -1 && toId != -1 ? graph.findEdge(fromId, toId) : -1;
+    }
+
+    private Side getEdgeSide(int edge) {
+        return SideDirections.getSide(graph.getEdgeSides()[edge]);
+    }
+
+    private int getEdgeTag(int edge) {
+        int[] edgeTags = graph.getEdgeTags();
+        return edgeTags != null ? edgeTags[edge] : 0;
+    }
+
+    private boolean isFilteredOut(EdgeFilter edgeFilter, NetworkNode from, NetworkNode to, int edge) {
+        return edgeFilter != null && !edgeFilter.test(from, to, getEdgeSide(edge), getEdgeTag(edge));
     }
 
     private void validateNotMutating() {
@@ -45,41 +420,200 @@ public class BlockNetwork {
     }
 
     public void addNetworkingBlock(NetworkNode networkNode) {
-        validateNotMutating();
-        mutating = true;
+        lockForWriting();
         try {
-            if (!allNetworkNodes.containsKey(networkNode)) {
-                allNetworkNodes.put(networkNode, Sets.<NetworkNode>newHashSet());
+            validateNotMutating();
+            if (batchChanges != null) {
+                batchChanges.put(networkNode, true);
+                return;
+            }
+            mutating = true;
+            try {
+                if (!graph.contains(networkNode)) {
+                    int id = graph.add(networkNode);
+                    linkToExistingNodes(id);
 
-                // loop through all the nodes and find connections
-                for (NetworkNode existingNode : allNetworkNodes.keySet()) {
-                    if (networkNode != existingNode && networkNode.isConnectedTo(existingNode)) {
-                        allNetworkNodes.get(existingNode).add(networkNode);
-                        allNetworkNodes.get(networkNode).add(existingNode);
-                    }
+                    addToNetwork(id);
                 }
 
-                addToNetwork(networkNode);
+            } finally {
+                mutating = false;
             }
-
         } finally {
-            mutating = false;
+            unlockForWriting();
+        }
+    }
+
+    private void linkToExistingNodes(int id) {
+        linkToConnectedNodes(id);
+        NetworkNode networkNode = graph.getNode(id);
+        if (networkNode instanceof SpatialNetworkNode) {
+            spatialNodes.add(((SpatialNetworkNode) networkNode).getPackedLocation(), id);
+        }
+    }
+
+    private void linkToConnectedNodes(int id) {
+        NetworkNode networkNode = graph.getNode(id);
+        if (networkNode instanceof SpatialNetworkNode) {
+            // only nodes at the locations this node can connect to are candidates for connection
+            for (long location : ((SpatialNetworkNode) networkNode).getConnectableLocations()) {
+                for (int existingId = spatialNodes.getFirst(location); existingId != -1; existingId = spatialNodes.getNext(existingId)) {
+                    linkIfConnected(id, existingId);
+                }
+            }
+        } else {
+            // loop through all the nodes and find connections
+            for (int existingId = 0; existingId < graph.getIdLimit(); existingId++) {
+                if (graph.getNode(existingId) != null) {
+                    linkIfConnected(id, existingId);
+                }
+            }
+        }
+    }
+
+    private void linkIfConnected(int id, int existingId) {
+        NetworkNode networkNode = graph.getNode(id);
+        NetworkNode existingNode = graph.getNode(existingId);
+        if (id != existingId && networkNode.isConnectedTo(existingNode)
+                && graph.connect(id, existingId, getConnectionSide(id, existingId), getConnectionSide(existingId, id),
+                getTag(networkNode, existingNode), getTag(existingNode, networkNode))
+                && isLongConnection(networkNode, existingNode)) {
+            longConnectionCount++;
+        }
+    }
+
+    private byte getConnectionSide(int fromId, int toId) {
+        if (!(graph.getNode(fromId) instanceof SpatialNetworkNode && graph.getNode(toId) instanceof SpatialNetworkNode)) {
+            return NetworkGraph.NO_SIDE;
         }
+        long from = ((SpatialNetworkNode) graph.getNode(fromId)).getPackedLocation();
+        long to = ((SpatialNetworkNode) graph.getNode(toId)).getPackedLocation();
+        return (byte) SideDirections.inDirection(PackedBlockLocation.getDeltaX(from, to),
+                PackedBlockLocation.getDeltaY(from, to), PackedBlockLocation.getDeltaZ(from, to)).ordinal();
+    }
+
+    private int getTag(NetworkNode from, NetworkNode to) {
+        return edgeTagFunction != null ? edgeTagFunction.getTag(from, to) : 0;
+    }
+
+    private static boolean isLongConnection(NetworkNode networkNode1, NetworkNode networkNode2) {
+        return networkNode1 instanceof SpatialNetworkNode && networkNode2 instanceof SpatialNetworkNode
+                && PackedBlockLocation.getManhattanDistance(((SpatialNetworkNode) networkNode1).getPackedLocation(),
+                ((SpatialNetworkNode) networkNode2).getPackedLocation()) > 1;
     }
 
+    /**
+     * Adds all the nodes at once. Connections are found the same way as if the nodes were added one by one in
+     * the order of the collection, but each node is put straight into its final network, so listeners are not
+     * notified about networks that would only exist while the nodes are being added.
+     */
     public void addNetworkingBlocks(Collection<NetworkNode> networkNodes) {
-        // No major optimization possible here
-        for (NetworkNode networkNode : networkNodes) {
-            addNetworkingBlock(networkNode);
+        lockForWriting();
+        try {
+            validateNotMutating();
+            if (batchChanges != null) {
+                for (NetworkNode networkNode : networkNodes) {
+                    batchChanges.put(networkNode, true);
+                }
+                return;
+            }
+            mutating = true;
+            try {
+                List<NetworkNode> newNodes = Lists.newArrayListWithCapacity(networkNodes.size());
+                for (NetworkNode networkNode : networkNodes) {
+                    if (!graph.contains(networkNode)) {
+                        linkToExistingNodes(graph.add(networkNode));
+                        newNodes.add(networkNode);
+                    }
+                }
+
+                addToNetworks(newNodes);
+            } finally {
+                mutating = false;
+            }
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    private void addToNetworks(List<NetworkNode> newNodes) {
+        // find out which of the new nodes are connected to each other with union-find
+        Map<NetworkNode, Integer> newNodeIndexes = Maps.newHashMap();
+        for (NetworkNode newNode : newNodes) {
+            newNodeIndexes.put(newNode, newNodeIndexes.size());
+        }
+        int[] parents = new int[newNodes.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < parents.length; i++) {
+            for (NetworkNode connectedNode : graph.getAdjacentNodes(graph.getId(newNodes.get(i)))) {
+                Integer connectedIndex = newNodeIndexes.get(connectedNode);
+                if (connectedIndex != null) {
+                    parents[findRoot(parents, connectedIndex)] = findRoot(parents, i);
+                }
+            }
+        }
+
+        // group the new nodes into parts, together with the existing nodes each part connects to
+        Map<Integer, List<NetworkNode>> partNodes = Maps.newLinkedHashMap();
+        Map<Integer, List<NetworkNode>> partConnections = Maps.newHashMap();
+        for (int i = 0; i < parents.length; i++) {
+            int root = findRoot(parents, i);
+            List<NetworkNode> nodes = partNodes.get(root);
+            if (nodes == null) {
+                nodes = Lists.newArrayList();
+                partNodes.put(root, nodes);
+                partConnections.put(root, Lists.<NetworkNode>newArrayList());
+            }
+            NetworkNode newNode = newNodes.get(i);
+            nodes.add(newNode);
+            for (NetworkNode connectedNode : graph.getAdjacentNodes(graph.getId(newNode))) {
+                if (!newNodeIndexes.containsKey(connectedNode)) {
+                    partConnections.get(root).add(connectedNode);
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, List<NetworkNode>> part : partNodes.entrySet()) {
+            Network network = null;
+            for (NetworkNode connectedNode : partConnections.get(part.getKey())) {
+                // look the network up only now, as networks connected by a previous part may have been merged
+                Network foundNetwork = findNetwork(connectedNode);
+                if (network == null) {
+                    network = foundNetwork;
+                } else if (foundNetwork != network) {
+                    network = mergeNetworks(network, foundNetwork);
+                }
+            }
+
+            if (network == null) {
+                network = new BasicNetwork();
+                allNetworks.put(network, Sets.<NetworkNode>newHashSet());
+                notifyNetworkAdded(network);
+            }
+
+            markModified(network);
+            articulationPoints.invalidate(network);
+            Set<NetworkNode> networkNodes = allNetworks.get(network);
+            for (NetworkNode newNode : part.getValue()) {
+                networkNodes.add(newNode);
+                graph.setNetwork(graph.getId(newNode), network);
+                notifyNetworkingNodeAdded(network, newNode);
+            }
         }
     }
 
-    private void addToNetwork(NetworkNode networkNode) {
-        Set<NetworkNode> connectedNodes = allNetworkNodes.get(networkNode);
+    private void addToNetwork(int id) {
+        NetworkNode networkNode = graph.getNode(id);
+        int[] edges = graph.getEdges();
 
         Network network = null;
-        for (NetworkNode connectedNode : connectedNodes) {
-            Network foundNetwork = getNetwork(connectedNode);
+        if (graph.getEdgeCount(id) > 0) {
+            articulationPoints.addedConnected(id);
+        }
+        for (int i = graph.getEdgeStart(id), end = i + graph.getEdgeCount(id); i < end; i++) {
+            Network foundNetwork = graph.getNetwork(edges[i]);
             if (foundNetwork == null) {
                 // abort, this should not happen
                 return;
@@ -88,7 +622,7 @@ public class BlockNetwork {
                 network = foundNetwork;
             } else if (foundNetwork != network) {
                 // connect networks that have now become connected because of this new node
-                mergeNetworks(network, foundNetwork);
+                network = mergeNetworks(network, foundNetwork);
             }
         }
 
@@ -96,144 +630,448 @@ public class BlockNetwork {
             network = new BasicNetwork();
             allNetworks.put(network, Sets.<NetworkNode>newHashSet());
             notifyNetworkAdded(network);
+            articulationPoints.addedAlone(id, network);
         }
 
+        markModified(network);
         allNetworks.get(network).add(networkNode);
+        graph.setNetwork(id, network);
 
         notifyNetworkingNodeAdded(network, networkNode);
 
     }
 
     public Network getNetwork(NetworkNode networkNode) {
-        for (Network network : allNetworks.keySet()) {
-            Set<NetworkNode> nodes = allNetworks.get(network);
-
-            for (NetworkNode node : nodes) {
-                if (node.equals(networkNode)) {
-                    return network;
-                }
-            }
+        lockForQuerying();
+        try {
+            return findNetwork(networkNode);
+        } finally {
+            unlockForReading();
         }
+    }
 
-        return null;
+    private Network findNetwork(NetworkNode networkNode) {
+        int id = graph.getId(networkNode);
+        return id != -1 ? graph.getNetwork(id) : null;
     }
 
-    private void mergeNetworks(Network target, Network source) {
-        Set<NetworkNode> nodesInSource = allNetworks.get(source);
-        for (NetworkNode node : nodesInSource) {
-            notifyNetworkingNodeRemoved(source, node);
+    public boolean areInSameNetwork(NetworkNode networkNode1, NetworkNode networkNode2) {
+        lockForQuerying();
+        try {
+            Network network = findNetwork(networkNode1);
+            return network != null && network == findNetwork(networkNode2);
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * Moves the nodes of the smaller network to the bigger one.
+     *
+     * @return the network that is left
+     */
+    private Network mergeNetworks(Network network1, Network network2) {
+        Network target = network1;
+        Network source = network2;
+        if (allNetworks.get(target).size() < allNetworks.get(source).size()) {
+            target = network2;
+            source = network1;
         }
-        allNetworks.remove(source);
-        notifyNetworkRemoved(source);
 
+        markModified(target);
+        Set<NetworkNode> nodesInSource = allNetworks.remove(source);
         allNetworks.get(target).addAll(nodesInSource);
         for (NetworkNode node : nodesInSource) {
-            notifyNetworkingNodeAdded(target, node);
+            graph.setNetwork(graph.getId(node), target);
         }
+
+        articulationPoints.merged(target, source);
+        Set<NetworkNode> sourceStartingNodes = dirtyNetworks.remove(source);
+        if (sourceStartingNodes != null) {
+            markDirty(target, sourceStartingNodes);
+        }
+        notifyNetworksMerged(target, source, nodesInSource);
+        return target;
     }
 
+    /**
+     * Replaces a node with another one at the same location, such as a cable with other connection sides, by
+     * changing only the connections that differ between them. The network is split or merged only if that changes
+     * which nodes are connected. A node at another location is removed and the new one added instead.
+     */
     public void updateNetworkingBlock(NetworkNode oldNode, NetworkNode newNode) {
-        logger.info("Replacing networking node: " + oldNode.toString() + " with: " + newNode.toString());
-        removeNetworkingBlock(oldNode);
-        addNetworkingBlock(newNode);
+        logger.debug("Replacing networking node: {} with: {}", oldNode, newNode);
+        // other threads don't see the network without either of the nodes
+        lockForWriting();
+        try {
+            validateNotMutating();
+            int id = graph.getId(oldNode);
+            int newId = graph.getId(newNode);
+            if (batchChanges != null || id == -1 || (newId != -1 && newId != id) || !isSameLocation(oldNode, newNode)) {
+                removeNetworkingBlock(oldNode);
+                addNetworkingBlock(newNode);
+                return;
+            }
+
+            mutating = true;
+            try {
+                replaceNode(id, newNode);
+            } finally {
+                mutating = false;
+            }
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    private static boolean isSameLocation(NetworkNode networkNode1, NetworkNode networkNode2) {
+        if (networkNode1 instanceof SpatialNetworkNode && networkNode2 instanceof SpatialNetworkNode) {
+            return ((SpatialNetworkNode) networkNode1).getPackedLocation() == ((SpatialNetworkNode) networkNode2).getPackedLocation();
+        }
+        return !(networkNode1 instanceof SpatialNetworkNode) && !(networkNode2 instanceof SpatialNetworkNode);
+    }
+
+    private void replaceNode(int id, NetworkNode newNode) {
+        NetworkNode oldNode = graph.getNode(id);
+        Network network = graph.getNetwork(id);
+        markModified(network);
+        articulationPoints.invalidate(network);
+        Set<NetworkNode> networkNodes = allNetworks.get(network);
+        networkNodes.remove(oldNode);
+        networkNodes.add(newNode);
+        graph.replace(id, newNode);
+        Set<NetworkNode> startingNodes = dirtyNetworks.get(network);
+        if (startingNodes != null && startingNodes.remove(oldNode)) {
+            startingNodes.add(newNode);
+        }
+        if (!oldNode.equals(newNode)) {
+            notifyNetworkingNodeRemoved(network, oldNode);
+            notifyNetworkingNodeAdded(network, newNode);
+        }
+
+        // keep the connections the new node still has, with the tags found again for the new node
+        int[] oldConnectedIds = Arrays.copyOfRange(graph.getEdges(), graph.getEdgeStart(id), graph.getEdgeStart(id) + graph.getEdgeCount(id));
+        List<NetworkNode> disconnectedNodes = Lists.newArrayList();
+        for (int connectedId : oldConnectedIds) {
+            NetworkNode connectedNode = graph.getNode(connectedId);
+            if (!newNode.isConnectedTo(connectedNode)) {
+                graph.disconnect(id, connectedId);
+                if (isLongConnection(newNode, connectedNode)) {
+                    longConnectionCount--;
+                }
+                disconnectedNodes.add(connectedNode);
+            } else if (edgeTagFunction != null) {
+                graph.getEdgeTags()[graph.findEdge(id, connectedId)] = getTag(newNode, connectedNode);
+                graph.getEdgeTags()[graph.findEdge(connectedId, id)] = getTag(connectedNode, newNode);
+            }
+        }
+
+        // merge the networks of the nodes connected only to the new node
+        linkToConnectedNodes(id);
+        int[] edges = graph.getEdges();
+        for (int i = graph.getEdgeStart(id), end = i + graph.getEdgeCount(id); i < end; i++) {
+            Network connectedNetwork = graph.getNetwork(edges[i]);
+            if (connectedNetwork != network) {
+                network = mergeNetworks(network, connectedNetwork);
+            }
+        }
+
+        if (!disconnectedNodes.isEmpty()) {
+            disconnectedNodes.add(newNode);
+            splitNetworkOrMarkDirty(network, disconnectedNodes);
+        }
     }
 
     public void removeNetworkingBlock(NetworkNode networkNode) {
-        validateNotMutating();
-        mutating = true;
+        lockForWriting();
         try {
-            Set<NetworkNode> connectedNodes = allNetworkNodes.get(networkNode);
+            validateNotMutating();
+            if (batchChanges != null) {
+                batchChanges.put(networkNode, false);
+                return;
+            }
+            Network originalNetwork = findNetwork(networkNode);
+            if (originalNetwork == null) {
+                return;
+            }
+            mutating = true;
+            try {
+                // the critical nodes of a network left for lazy splitting are not known until it is split
+                boolean mayBeSplit = dirtyNetworks.containsKey(originalNetwork)
+                        || articulationPoints.removing(graph.getId(networkNode), originalNetwork, allNetworks.get(originalNetwork).size());
+                List<NetworkNode> connectedNodes = detachNode(networkNode);
+
+                // ensure that the network is still intact, if not, split it up
+                splitOrRemoveNetwork(originalNetwork, mayBeSplit ? connectedNodes : Collections.<NetworkNode>emptyList());
+            } finally {
+                mutating = false;
+            }
+        } finally {
+            unlockForWriting();
+        }
+    }
 
-            Network originalNetwork = getNetwork(networkNode);
-            allNetworks.get(originalNetwork).remove(networkNode);
-            notifyNetworkingNodeRemoved(originalNetwork, networkNode);
+    /**
+     * Removes all the nodes first and only then checks which of the affected networks fell apart, so listeners are
+     * not notified about networks that would only exist while the nodes are being removed.
+     */
+    public void removeNetworkingBlocks(Collection<NetworkNode> networkNodes) {
+        lockForWriting();
+        try {
+            validateNotMutating();
+            if (batchChanges != null) {
+                for (NetworkNode networkNode : networkNodes) {
+                    batchChanges.put(networkNode, false);
+                }
+                return;
+            }
+            mutating = true;
+            try {
+                // the remaining neighbours of the removed nodes, for each network that has lost nodes
+                Map<Network, Set<NetworkNode>> affectedNetworks = Maps.newLinkedHashMap();
+                for (NetworkNode networkNode : networkNodes) {
+                    Network originalNetwork = findNetwork(networkNode);
+                    if (originalNetwork == null) {
+                        continue;
+                    }
 
-            allNetworkNodes.remove(networkNode);
-            // remove all adjacent links
-            for (NetworkNode connectedNode : connectedNodes) {
-                allNetworkNodes.get(connectedNode).remove(networkNode);
+                    Set<NetworkNode> startingNodes = affectedNetworks.get(originalNetwork);
+                    if (startingNodes == null) {
+                        startingNodes = Sets.newLinkedHashSet();
+                        affectedNetworks.put(originalNetwork, startingNodes);
+                        articulationPoints.invalidate(originalNetwork);
+                    }
+                    startingNodes.remove(networkNode);
+                    startingNodes.addAll(detachNode(networkNode));
+                }
+
+                for (Map.Entry<Network, Set<NetworkNode>> affectedNetwork : affectedNetworks.entrySet()) {
+                    splitOrRemoveNetwork(affectedNetwork.getKey(), affectedNetwork.getValue());
+                }
+            } finally {
+                mutating = false;
             }
+        } finally {
+            unlockForWriting();
+        }
+    }
 
-            Queue<NetworkNode> needsNewNetwork = Queues.newArrayDeque();
-            needsNewNetwork.addAll(connectedNodes);
+    /**
+     * Removes the node from its network and from the adjacency list.
+     *
+     * @return nodes that were connected to the removed node
+     */
+    private List<NetworkNode> detachNode(NetworkNode networkNode) {
+        int id = graph.getId(networkNode);
+        Network originalNetwork = graph.getNetwork(id);
+        graph.setNetwork(id, null);
+        markModified(originalNetwork);
+        allNetworks.get(originalNetwork).remove(networkNode);
+        Set<NetworkNode> startingNodes = dirtyNetworks.get(originalNetwork);
+        if (startingNodes != null) {
+            startingNodes.remove(networkNode);
+        }
+        notifyNetworkingNodeRemoved(originalNetwork, networkNode);
 
-            // ensure that the network is still intact, if not,  split it up
-            // touch all nodes in the starting from each of the connected nodes to the removed node
-            // if a nodes is found in a previously touched list, it connects to that network
-            Map<NetworkNode, NetworkNode> visitedNodes = Maps.newHashMap(); // where Key = a node in the network, Value = the connected node it originated from
-            for (NetworkNode connectedNode : connectedNodes) {
-                visitedNodes.put(connectedNode, connectedNode);
+        List<NetworkNode> connectedNodes = graph.getAdjacentNodes(id);
+        if (networkNode instanceof SpatialNetworkNode) {
+            spatialNodes.remove(id);
+        }
+        for (NetworkNode connectedNode : connectedNodes) {
+            if (isLongConnection(networkNode, connectedNode)) {
+                longConnectionCount--;
             }
+        }
+        // remove the node with all adjacent links
+        graph.remove(id);
+        return connectedNodes;
+    }
 
-            Queue<NetworkNode> currentNodes = Queues.newArrayDeque();
-            for (NetworkNode connectedNode : connectedNodes) {
-                if (needsNewNetwork.size() == 0) {
-                    // we have already verified that nothing needs a new network
-                    return;
-                }
+    private void splitOrRemoveNetwork(Network network, Collection<NetworkNode> startingNodes) {
+        if (allNetworks.get(network).size() == 0) {
+            // this network is empty
+            allNetworks.remove(network);
+            dirtyNetworks.remove(network);
+            articulationPoints.forget(network);
+            notifyNetworkRemoved(network);
+        } else {
+            splitNetworkOrMarkDirty(network, startingNodes);
+        }
+    }
+
+    private void splitNetworkOrMarkDirty(Network network, Collection<NetworkNode> startingNodes) {
+        if (lazySplitting) {
+            markDirty(network, startingNodes);
+        } else {
+            splitNetwork(network, startingNodes);
+        }
+    }
+
+    /**
+     * Leaves the network to be split later. Each part the network may have been split into has at least one of the
+     * starting nodes of the network, so a single search from all of them finds the parts.
+     */
+    private void markDirty(Network network, Collection<NetworkNode> startingNodes) {
+        if (startingNodes.isEmpty()) {
+            return;
+        }
+        Set<NetworkNode> networkStartingNodes = dirtyNetworks.get(network);
+        if (networkStartingNodes == null) {
+            networkStartingNodes = Sets.newLinkedHashSet();
+            dirtyNetworks.put(network, networkStartingNodes);
+        }
+        networkStartingNodes.addAll(startingNodes);
+    }
+
+    private void splitNetwork(Network network, Collection<NetworkNode> startingNodes) {
+        for (int[] disconnectedIds : findDisconnectedParts(network, startingNodes)) {
+            Network newNetwork = new BasicNetwork();
+            Set<NetworkNode> newNetworkNodes = Sets.newHashSet();
+            allNetworks.put(newNetwork, newNetworkNodes);
+            notifyNetworkAdded(newNetwork);
+            markModified(network);
+            Set<NetworkNode> originalNetworkNodes = allNetworks.get(network);
+            for (int id : disconnectedIds) {
+                NetworkNode node = graph.getNode(id);
+                originalNetworkNodes.remove(node);
+                notifyNetworkingNodeRemoved(network, node);
+                newNetworkNodes.add(node);
+                graph.setNetwork(id, newNetwork);
+                notifyNetworkingNodeAdded(newNetwork, node);
+            }
+        }
+    }
+
+    /**
+     * Searches the network from all the starting nodes in turns, one node per search at a time. Searches that
+     * reach each other are joined into a group. A group that has nothing left to visit is a part of the network
+     * that got disconnected from the rest. The searching stops once there is only one group left that is still
+     * growing, which keeps its original network, so the cost is proportional to the size of the smaller parts.
+     *
+     * @return ids of the nodes of all the disconnected parts of the network, except the one left in the original
+     * network
+     */
+    private List<int[]> findDisconnectedParts(Network network, Collection<NetworkNode> startingNodes) {
+        List<int[]> disconnectedParts = Lists.newArrayList();
+        int searchCount = startingNodes.size();
+        if (searchCount < 2) {
+            return disconnectedParts;
+        }
 
-                currentNodes.add(connectedNode);
+        // where the value is the search that visited the node first
+        NodeIdIntMap visitedNodes = getSearchBuffers().clearedMap(0);
+        // the nodes still to expand by each search, and all the nodes visited by it
+        IntArrayDeque[] searchQueues = new IntArrayDeque[searchCount];
+        IntArrayDeque[] searchNodes = new IntArrayDeque[searchCount];
+        // union-find of the searches that have met, and number of searches still growing for each group
+        int[] searchGroups = new int[searchCount];
+        int[] growingSearches = new int[searchCount];
+        int search = 0;
+        for (NetworkNode startingNode : startingNodes) {
+            int startingId = graph.getId(startingNode);
+            searchGroups[search] = search;
+            growingSearches[search] = 1;
+            visitedNodes.put(startingId, search);
+            searchQueues[search] = new IntArrayDeque();
+            searchQueues[search].addLast(startingId);
+            searchNodes[search] = new IntArrayDeque();
+            searchNodes[search].addLast(startingId);
+            search++;
+        }
+
+        int[] edges = graph.getEdges();
+        int growingGroups = searchCount;
+        int visitedCount = searchCount;
+        while (growingGroups > 1) {
+            for (search = 0; search < searchCount && growingGroups > 1; search++) {
+                IntArrayDeque queue = searchQueues[search];
+                if (queue.isEmpty()) {
+                    continue;
+                }
 
-                // search through the nodes connecting to this one
-                while (currentNodes.size() > 0) {
-                    NetworkNode currentNode = currentNodes.poll();
-                    if (visitedNodes.containsKey(currentNode) && currentNode != connectedNode) {
-                        // we have visited this node already
-                        needsNewNetwork.remove(currentNode);
+                int currentId = queue.pollFirst();
+                for (int i = graph.getEdgeStart(currentId), end = i + graph.getEdgeCount(currentId); i < end; i++) {
+                    int connectedId = edges[i];
+                    int visitedBy = visitedNodes.get(connectedId, -1);
+                    if (visitedBy == -1) {
+                        visitedNodes.put(connectedId, search);
+                        searchNodes[search].addLast(connectedId);
+                        queue.addLast(connectedId);
+                        visitedCount++;
                     } else {
-                        for (NetworkNode node : allNetworkNodes.get(currentNode)) {
-                            // add all these adjacent nodes to the list of nodes to visit
-                            currentNodes.add(node);
+                        int group = findRoot(searchGroups, search);
+                        int otherGroup = findRoot(searchGroups, visitedBy);
+                        if (group != otherGroup) {
+                            // the searches have met, so they are in the same part of the network
+                            searchGroups[otherGroup] = group;
+                            growingSearches[group] += growingSearches[otherGroup];
+                            growingGroups--;
                         }
                     }
-                    visitedNodes.put(currentNode, connectedNode);
-                }
-            }
-
-            // reuse the existing network
-            needsNewNetwork.poll();
-            // create new networks
-            for (NetworkNode node : needsNewNetwork) {
-                Network newNetwork = new BasicNetwork();
-                Set<NetworkNode> newNetworkNodes = Sets.newHashSet();
-                allNetworks.put(newNetwork, newNetworkNodes);
-                notifyNetworkAdded(newNetwork);
-                Set<NetworkNode> originalNetworkNodes = allNetworks.get(originalNetwork);
-                for (Map.Entry<NetworkNode, NetworkNode> item : visitedNodes.entrySet()) {
-                    if (item.getValue() == node) {
-                        originalNetworkNodes.remove(item.getKey());
-                        notifyNetworkingNodeRemoved(originalNetwork, item.getKey());
-                        newNetworkNodes.add(item.getKey());
-                        notifyNetworkingNodeAdded(newNetwork, item.getKey());
+                }
 
+                if (queue.isEmpty()) {
+                    int group = findRoot(searchGroups, search);
+                    if (--growingSearches[group] == 0) {
+                        // the whole group is visited, so this part is not connected to any other
+                        growingGroups--;
+                        disconnectedParts.add(collectSearchNodes(searchNodes, searchGroups, group));
                     }
                 }
-
             }
+        }
 
-            if (allNetworks.get(originalNetwork).size() == 0) {
-                // this network is empty
-                allNetworks.remove(originalNetwork);
-                notifyNetworkRemoved(originalNetwork);
-            }
+        articulationPoints.splitSearched(network, visitedCount, !disconnectedParts.isEmpty());
+        return disconnectedParts;
+    }
 
-        } finally {
-            mutating = false;
+    private static int[] collectSearchNodes(IntArrayDeque[] searchNodes, int[] searchGroups, int group) {
+        int count = 0;
+        for (int search = 0; search < searchNodes.length; search++) {
+            if (findRoot(searchGroups, search) == group) {
+                count += searchNodes[search].size();
+            }
         }
+        int[] ids = new int[count];
+        count = 0;
+        for (int search = 0; search < searchNodes.length; search++) {
+            if (findRoot(searchGroups, search) == group) {
+                for (int i = 0; i < searchNodes[search].size(); i++) {
+                    ids[count++] = searchNodes[search].get(i);
+                }
+            }
+        }
+        return ids;
     }
 
-    public void removeNetworkingBlocks(Collection<NetworkNode> networkNodes) {
-        for (NetworkNode node : networkNodes) {
-            removeNetworkingBlock(node);
+    private static int findRoot(int[] parents, int element) {
+        int root = element;
+        while (parents[root] != root) {
+            root = parents[root];
         }
+        parents[element] = root;
+        return root;
     }
 
     public Collection<Network> getNetworks() {
-        return Collections.unmodifiableCollection(allNetworks.keySet());
+        lockForQuerying();
+        try {
+            if (lock == null) {
+                return Collections.unmodifiableCollection(allNetworks.keySet());
+            }
+            return ImmutableList.copyOf(allNetworks.keySet());
+        } finally {
+            unlockForReading();
+        }
     }
 
     public boolean isNetworkActive(Network network) {
-        return allNetworks.containsKey(network);
+        lockForQuerying();
+        try {
+            return allNetworks.containsKey(network);
+        } finally {
+            unlockForReading();
+        }
     }
 
 
@@ -261,16 +1099,84 @@ public class BlockNetwork {
         }
     }
 
+    private void notifyNetworksMerged(Network target, Network source, Collection<NetworkNode> movedNodes) {
+        Collection<NetworkNode> unmodifiableMovedNodes = Collections.unmodifiableCollection(movedNodes);
+        List<NetworkTopologyListener> nodeListeners = Lists.newArrayList();
+        for (NetworkTopologyListener listener : listeners) {
+            if (listener instanceof NetworkMergeListener) {
+                ((NetworkMergeListener) listener).networksMerged(target, source, unmodifiableMovedNodes);
+            } else {
+                nodeListeners.add(listener);
+            }
+        }
+
+        // listeners that don't know about merges see the nodes removed from one network and added to the other
+        for (NetworkNode node : movedNodes) {
+            for (NetworkTopologyListener listener : nodeListeners) {
+                listener.networkingNodeRemoved(source, node);
+            }
+        }
+        for (NetworkTopologyListener listener : nodeListeners) {
+            listener.networkRemoved(source);
+        }
+        for (NetworkNode node : movedNodes) {
+            for (NetworkTopologyListener listener : nodeListeners) {
+                listener.networkingNodeAdded(target, node);
+            }
+        }
+    }
+
     public Iterable<NetworkNode> getNetworkNodes(Network network) {
-        return allNetworks.get(network);
+        lockForQuerying();
+        try {
+            Set<NetworkNode> networkNodes = allNetworks.get(network);
+            if (lock == null) {
+                return networkNodes;
+            }
+            return networkNodes != null ? ImmutableList.copyOf(networkNodes) : null;
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    private void markModified(Network network) {
+        ((BasicNetwork) network).modificationCount++;
     }
 
     private class BasicNetwork implements Network {
+        // used to find out if anything cached about the network is still valid
+        private int modificationCount;
+
         @Override
         public void mergeTo(Network network) {
         }
     }
 
+    /**
+     * Notifies the listeners of the block network about the events it gets.
+     */
+    private class NotifyingListener implements NetworkTopologyListener {
+        @Override
+        public void networkAdded(Network network) {
+            notifyNetworkAdded(network);
+        }
+
+        @Override
+        public void networkingNodeAdded(Network network, NetworkNode networkingNode) {
+            notifyNetworkingNodeAdded(network, networkingNode);
+        }
+
+        @Override
+        public void networkingNodeRemoved(Network network, NetworkNode networkingNode) {
+            notifyNetworkingNodeRemoved(network, networkingNode);
+        }
+
+        @Override
+        public void networkRemoved(Network network) {
+            notifyNetworkRemoved(network);
+        }
+    }
+
     private class BasicNetworkFactory implements Supplier<Network> {
         @Override
         public Network get() {
@@ -278,25 +1184,67 @@ public class BlockNetwork {
         }
     }
 
+    /**
+     * @return true if removing the node would split its network into more than one, false also if the node is not
+     * in the block network
+     */
+    public boolean isCriticalNode(NetworkNode networkNode) {
+        // may search the network again, which uses shared state
+        lockForWriting();
+        try {
+            validateNotMutating();
+            splitDirtyNetworks();
+            int id = graph.getId(networkNode);
+            return id != -1 && articulationPoints.isCritical(id, graph.getNetwork(id));
+        } finally {
+            unlockForWriting();
+        }
+    }
+
     public boolean hasNetworkingNode(Network network, NetworkNode networkNode) {
-        return allNetworks.get(network).contains(networkNode);
+        lockForQuerying();
+        try {
+            return allNetworks.get(network).contains(networkNode);
+        } finally {
+            unlockForReading();
+        }
     }
 
     public int getNetworkSize() {
-        return allNetworkNodes.size();
+        lockForReading();
+        try {
+            return graph.size();
+        } finally {
+            unlockForReading();
+        }
     }
 
-    public Iterable<NetworkNode> getAdjacentNodes(NetworkNode node) {
-        return allNetworkNodes.get(node);
-
+    public List<NetworkNode> getAdjacentNodes(NetworkNode node) {
+        lockForReading();
+        try {
+            int id = graph.getId(node);
+            return id != -1 ? graph.getAdjacentNodes(id) : null;
+        } finally {
+            unlockForReading();
+        }
     }
 
     public int getDistance(NetworkNode from, NetworkNode to) {
         return getDistance(from, to, null);
     }
+    /**
+     * @return the distance between the nodes, or -1 if there is no path between them
+     */
     public int getDistance(NetworkNode from, NetworkNode to, Predicate<TwoNetworkNodes> edgeFilter) {
-            NetworkPath path = getPath(from, to, edgeFilter);
-        return path.getDistance();
+        return getDistance(from, to, EdgeFilter.fromPredicate(edgeFilter));
+    }
+
+    /**
+     * @return the distance between the nodes, or -1 if there is no path between them
+     */
+    public int getDistance(NetworkNode from, NetworkNode to, EdgeFilter edgeFilter) {
+        NetworkPath path = getPath(from, to, edgeFilter);
+        return path != null ? path.getDistance() : -1;
     }
 
     public boolean isInDistance(int distance, NetworkNode from, NetworkNode to) {
@@ -304,65 +1252,493 @@ public class BlockNetwork {
     }
 
     public boolean isInDistance(int distance, NetworkNode from, NetworkNode to, Predicate<TwoNetworkNodes> edgeFilter) {
-        return getDistance(from, to, edgeFilter) <= distance;
+        return isInDistance(distance, from, to, EdgeFilter.fromPredicate(edgeFilter));
+    }
+
+    /**
+     * Searches only as far as the distance allows, so the cost depends on the number of nodes within the distance
+     * and not on the size of the network.
+     */
+    public boolean isInDistance(int distance, NetworkNode from, NetworkNode to, EdgeFilter edgeFilter) {
+        if (from.equals(to)) {
+            return distance >= 0;
+        }
+        lockForQuerying();
+        try {
+            Network network = findNetwork(from);
+            if (network == null || network != findNetwork(to)) {
+                return false;
+            }
+            NetworkPathCache cache = pathCache;
+            if (cache == null) {
+                return getPathBreadthFirst(from, to, edgeFilter, distance) != null;
+            }
+
+            NetworkPathCache.Query query = new NetworkPathCache.Query(from, to, edgeFilter, PathFindingAlgorithm.AUTOMATIC);
+            int modificationCount = ((BasicNetwork) network).modificationCount;
+            NetworkPathCache.CachedPath cachedPath = cache.get(query, network, modificationCount);
+            if (cachedPath != null) {
+                return cachedPath.path != null && cachedPath.path.getDistance() <= distance;
+            }
+            NetworkPath path = getPathBreadthFirst(from, to, edgeFilter, distance);
+            if (path != null) {
+                // a path found within the distance is still the shortest one
+                cache.put(query, network, modificationCount, path);
+            }
+            return path != null;
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    public NetworkDistanceMap getDistances(NetworkNode source) {
+        return getDistances(source, Integer.MAX_VALUE, null);
+    }
+
+    public NetworkDistanceMap getDistances(NetworkNode source, int maxDistance, Predicate<TwoNetworkNodes> edgeFilter) {
+        return getDistances(source, maxDistance, EdgeFilter.fromPredicate(edgeFilter));
+    }
+
+    /**
+     * Finds the distances from the source to all the nodes reachable from it with a single breadth-first search.
+     *
+     * @param maxDistance nodes further away than this are not searched
+     * @return the distances, or null if the source is not in the block network
+     */
+    public NetworkDistanceMap getDistances(NetworkNode source, int maxDistance, EdgeFilter edgeFilter) {
+        lockForQuerying();
+        try {
+            return findDistances(source, maxDistance, edgeFilter);
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    private NetworkDistanceMap findDistances(NetworkNode source, int maxDistance, EdgeFilter edgeFilter) {
+        int sourceId = graph.getId(source);
+        if (sourceId == -1) {
+            return null;
+        }
+
+        NetworkDistanceMap distanceMap = new NetworkDistanceMap(source);
+        SearchBuffers buffers = getSearchBuffers();
+        NodeIdIntMap reachedNodes = buffers.clearedMap(0);
+        IntArrayDeque queue = buffers.clearedQueue(0);
+        reachedNodes.put(sourceId, 0);
+        queue.addLast(sourceId);
+        int[] edges = graph.getEdges();
+        // the nodes are added to the map in the order they are added to the queue, so the n-th node taken from the
+        // queue has index n in the map
+        for (int current = 0; !queue.isEmpty(); current++) {
+            int currentId = queue.pollFirst();
+            int distance = distanceMap.getDistance(current);
+            if (distance >= maxDistance) {
+                break;
+            }
+
+            NetworkNode currentNode = graph.getNode(currentId);
+            for (int i = graph.getEdgeStart(currentId), end = i + graph.getEdgeCount(currentId); i < end; i++) {
+                int connectedId = edges[i];
+                if (reachedNodes.contains(connectedId)) {
+                    continue;
+                }
+                NetworkNode connectedNode = graph.getNode(connectedId);
+                // filter out any undesired edges
+                if (isFilteredOut(edgeFilter, currentNode, connectedNode, i)) {
+                    continue;
+                }
+                reachedNodes.put(connectedId, 0);
+                distanceMap.add(connectedNode, distance + 1, current, graph.getEdgeSides()[i], getEdgeTag(i));
+                queue.addLast(connectedId);
+            }
+        }
+        return distanceMap;
+    }
+
+    public NetworkDistanceMap getDistances(NetworkNode source, int maxDistance, Predicate<TwoNetworkNodes> edgeFilter, EdgeCostFunction edgeCost) {
+        return getDistances(source, maxDistance, EdgeFilter.fromPredicate(edgeFilter), edgeCost);
+    }
+
+    /**
+     * Finds the distances from the source to all the nodes reachable from it, where the distance is the sum of the
+     * costs of the connections on the cheapest path.
+     *
+     * @param maxDistance nodes further away than this are not searched
+     * @return the distances, or null if the source is not in the block network
+     */
+    public NetworkDistanceMap getDistances(NetworkNode source, int maxDistance, EdgeFilter edgeFilter, EdgeCostFunction edgeCost) {
+        lockForQuerying();
+        try {
+            if (!graph.contains(source)) {
+                return null;
+            }
+            return findDistancesWeighted(source, null, maxDistance, edgeFilter, edgeCost);
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    public NetworkPath getPath(NetworkNode start, NetworkNode end, Predicate<TwoNetworkNodes> edgeFilter, EdgeCostFunction edgeCost) {
+        return getPath(start, end, EdgeFilter.fromPredicate(edgeFilter), edgeCost);
+    }
+
+    /**
+     * Finds the cheapest path, where the distance is the sum of the costs of the connections on the path.
+     *
+     * @return the path, or null if there is no path between the nodes
+     */
+    public NetworkPath getPath(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter, EdgeCostFunction edgeCost) {
+        if (start.equals(end)) {
+            return new NetworkPath(0, Sets.<NetworkNode>newLinkedHashSet());
+        }
+        lockForQuerying();
+        try {
+            Network network = findNetwork(start);
+            if (network == null || network != findNetwork(end)) {
+                return null;
+            }
+            return findDistancesWeighted(start, end, Integer.MAX_VALUE, edgeFilter, edgeCost).getPath(end);
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * Dijkstra's algorithm, with the open nodes kept in a primitive heap of node ids.
+     *
+     * @param target the search stops once the distance to this node is known, so distances to other nodes may not
+     *               be final, null to search all reachable nodes
+     */
+    private NetworkDistanceMap findDistancesWeighted(NetworkNode source, NetworkNode target, int maxDistance,
+                                                     EdgeFilter edgeFilter, EdgeCostFunction edgeCost) {
+        NetworkDistanceMap distanceMap = new NetworkDistanceMap(source);
+        // where the value is the index of the reached node in the distance map
+        SearchBuffers buffers = getSearchBuffers();
+        NodeIdIntMap indexes = buffers.clearedMap(0);
+        IndexedIntHeap openNodes = buffers.clearedHeap();
+        int sourceId = graph.getId(source);
+        int targetId = target != null ? graph.getId(target) : -1;
+        indexes.put(sourceId, 0);
+        openNodes.insertOrDecrease(sourceId, 0);
+        int[] edges = graph.getEdges();
+        while (!openNodes.isEmpty()) {
+            int currentId = openNodes.pollMin();
+            if (currentId == targetId) {
+                break;
+            }
+
+            NetworkNode currentNode = graph.getNode(currentId);
+            int current = indexes.get(currentId, -1);
+            int distance = distanceMap.getDistance(current);
+            for (int i = graph.getEdgeStart(currentId), end = i + graph.getEdgeCount(currentId); i < end; i++) {
+                int connectedId = edges[i];
+                int connected = indexes.get(connectedId, -1);
+                if (connected != -1 && !openNodes.contains(connectedId)) {
+                    // the distance to this node is known already
+                    continue;
+                }
+                NetworkNode connectedNode = graph.getNode(connectedId);
+                // filter out any undesired edges
+                if (isFilteredOut(edgeFilter, currentNode, connectedNode, i)) {
+                    continue;
+                }
+
+                int cost = edgeCost.getCost(currentNode, connectedNode);
+                if (cost < 0) {
+                    throw new IllegalArgumentException("Negative cost " + cost + " of the connection from " + currentNode + " to " + connectedNode);
+                }
+                // compared before adding, as the sum could overflow for costs such as Integer.MAX_VALUE
+                if (cost > maxDistance - distance) {
+                    continue;
+                }
+                int connectedDistance = distance + cost;
+                if (connected == -1) {
+                    indexes.put(connectedId, distanceMap.add(connectedNode, connectedDistance, current, graph.getEdgeSides()[i], getEdgeTag(i)));
+                } else if (connectedDistance < distanceMap.getDistance(connected)) {
+                    distanceMap.update(connected, connectedDistance, current, graph.getEdgeSides()[i], getEdgeTag(i));
+                } else {
+                    continue;
+                }
+                openNodes.insertOrDecrease(connectedId, connectedDistance);
+            }
+        }
+
+        return distanceMap;
     }
 
     public NetworkPath getPath(NetworkNode start, NetworkNode end) {
         return getPath(start, end, null);
     }
 
-    /*
-     * Further optimizations: there is no heuristic part of this to avoid searching through all nodes
+    /**
+     * @return the path, or null if there is no path between the nodes
      */
     public NetworkPath getPath(NetworkNode start, NetworkNode end, Predicate<TwoNetworkNodes> edgeFilter) {
+        return getPath(start, end, EdgeFilter.fromPredicate(edgeFilter), PathFindingAlgorithm.AUTOMATIC);
+    }
+
+    /**
+     * @return the path, or null if there is no path between the nodes
+     */
+    public NetworkPath getPath(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter) {
+        return getPath(start, end, edgeFilter, PathFindingAlgorithm.AUTOMATIC);
+    }
+
+    /**
+     * @return the path, or null if there is no path between the nodes
+     */
+    public NetworkPath getPath(NetworkNode start, NetworkNode end, Predicate<TwoNetworkNodes> edgeFilter, PathFindingAlgorithm algorithm) {
+        return getPath(start, end, EdgeFilter.fromPredicate(edgeFilter), algorithm);
+    }
+
+    /**
+     * @return the path, or null if there is no path between the nodes
+     */
+    public NetworkPath getPath(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter, PathFindingAlgorithm algorithm) {
         if (start.equals(end)) {
             // we win already
             return new NetworkPath(0, Sets.<NetworkNode>newLinkedHashSet());
         }
+        lockForQuerying();
+        try {
+            Network network = findNetwork(start);
+            if (network == null || network != findNetwork(end)) {
+                return null;
+            }
+            NetworkPathCache cache = pathCache;
+            if (cache == null) {
+                return findPath(start, end, edgeFilter, algorithm);
+            }
 
-        Queue<NetworkNode> currentNodes = Queues.newArrayDeque();
-        Map<NetworkNode, NetworkNode> cameFrom = Maps.newHashMap();
-        Map<NetworkNode, Integer> distances = Maps.newHashMap();
-        Set<NetworkNode> visitedNodes = Sets.newHashSet();
+            NetworkPathCache.Query query = new NetworkPathCache.Query(start, end, edgeFilter, algorithm);
+            int modificationCount = ((BasicNetwork) network).modificationCount;
+            NetworkPathCache.CachedPath cachedPath = cache.get(query, network, modificationCount);
+            if (cachedPath != null) {
+                return cachedPath.path;
+            }
+            NetworkPath path = findPath(start, end, edgeFilter, algorithm);
+            cache.put(query, network, modificationCount, path);
+            return path;
+        } finally {
+            unlockForReading();
+        }
+    }
 
-        currentNodes.add(start);
-        distances.put(start, 0);
-        visitedNodes.add(start);
-        while (currentNodes.size() > 0) {
-            NetworkNode currentNode = currentNodes.poll();
+    private NetworkPath findPath(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter, PathFindingAlgorithm algorithm) {
+        boolean spatialEnds = start instanceof SpatialNetworkNode && end instanceof SpatialNetworkNode;
+        if (algorithm == PathFindingAlgorithm.A_STAR && !spatialEnds) {
+            throw new IllegalArgumentException("A* path finding requires both nodes to be spatial nodes");
+        }
+        // the open node buckets of A* need the estimated path lengths never to decrease along a path
+        if ((algorithm == PathFindingAlgorithm.A_STAR || algorithm == PathFindingAlgorithm.AUTOMATIC)
+                && spatialEnds && isManhattanDistanceAdmissible()) {
+            return getPathAStar((SpatialNetworkNode) start, (SpatialNetworkNode) end, edgeFilter);
+        }
+        return getPathBreadthFirst(start, end, edgeFilter, Integer.MAX_VALUE);
+    }
 
-            int currentConnectedDistance = distances.get(currentNode) + 1;
-            for (NetworkNode connectedNode : allNetworkNodes.get(currentNode)) {
-                // filter out any undesired edges
-                if (edgeFilter != null) {
-                    TwoNetworkNodes twoNetworkNodes = new TwoNetworkNodes(currentNode, connectedNode);
-                    if (!edgeFilter.apply(twoNetworkNodes)) {
-                        continue;
-                    }
+    /**
+     * The Manhattan distance never overestimates the path length, if all the nodes are spatial and each
+     * connection spans at most one block.
+     */
+    private boolean isManhattanDistanceAdmissible() {
+        return spatialNodes.size() == graph.size() && longConnectionCount == 0;
+    }
+
+    /**
+     * Finds the shortest path with a breadth-first search from both ends at once, expanding the side with the
+     * smaller frontier one level at a time. The first node reached by both searches is on a shortest path, so the
+     * search stops there.
+     *
+     * @param maxDistance the search gives up once both sides together got this far without meeting
+     */
+    private NetworkPath getPathBreadthFirst(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter, int maxDistance) {
+
+        SearchBuffers buffers = getSearchBuffers();
+        IntArrayDeque forwardNodes = buffers.clearedQueue(0);
+        IntArrayDeque backwardNodes = buffers.clearedQueue(1);
+        // where the value is the id of the node it was reached from, -1 for start and end
+        NodeIdIntMap forwardCameFrom = buffers.clearedMap(0);
+        NodeIdIntMap backwardCameFrom = buffers.clearedMap(1);
+
+        int startId = graph.getId(start);
+        int endId = graph.getId(end);
+        forwardNodes.addLast(startId);
+        forwardCameFrom.put(startId, -1);
+        backwardNodes.addLast(endId);
+        backwardCameFrom.put(endId, -1);
+        int searchedDistance = 0;
+        while (!forwardNodes.isEmpty() && !backwardNodes.isEmpty() && searchedDistance < maxDistance) {
+            int meetingId;
+            if (forwardNodes.size() <= backwardNodes.size()) {
+                meetingId = expandLevel(forwardNodes, forwardCameFrom, backwardCameFrom, edgeFilter, true);
+            } else {
+                meetingId = expandLevel(backwardNodes, backwardCameFrom, forwardCameFrom, edgeFilter, false);
+            }
+            searchedDistance++;
+
+            if (meetingId != -1) {
+                int forwardLength = 0;
+                for (int id = meetingId; id != -1; id = forwardCameFrom.get(id, -1)) {
+                    forwardLength++;
+                }
+                int backwardLength = 0;
+                for (int id = backwardCameFrom.get(meetingId, -1); id != -1; id = backwardCameFrom.get(id, -1)) {
+                    backwardLength++;
                 }
 
-                // update the distance and cameFrom
-                if (!distances.containsKey(connectedNode) || distances.get(connectedNode) > currentConnectedDistance) {
-                    distances.put(connectedNode, currentConnectedDistance);
-                    cameFrom.put(connectedNode, currentNode);
+                int[] ids = new int[forwardLength + backwardLength];
+                int index = forwardLength;
+                for (int id = meetingId; id != -1; id = forwardCameFrom.get(id, -1)) {
+                    ids[--index] = id;
                 }
-                if (!visitedNodes.contains(connectedNode)) {
-                    visitedNodes.add(connectedNode);
-                    currentNodes.add(connectedNode);
+                index = forwardLength;
+                for (int id = backwardCameFrom.get(meetingId, -1); id != -1; id = backwardCameFrom.get(id, -1)) {
+                    ids[index++] = id;
                 }
+                return createPath(ids.length - 1, ids);
             }
         }
 
+        return null;
+    }
 
-        List<NetworkNode> path = Lists.newArrayList();
-        NetworkNode currentNode = cameFrom.get(end);
-        while (currentNode != start) {
-            path.add(currentNode);
-            currentNode = cameFrom.get(currentNode);
+    /**
+     * @param ids ids of all the nodes on the path, from the start to the end
+     */
+    private NetworkPath createPath(int distance, int[] ids) {
+        int connectionCount = ids.length - 1;
+        // the path does not contain the start and end nodes
+        List<NetworkNode> path = Lists.newArrayListWithCapacity(Math.max(0, connectionCount - 1));
+        byte[] connectionSides = new byte[connectionCount];
+        int[] connectionTags = new int[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            int edge = graph.findEdge(ids[i], ids[i + 1]);
+            connectionSides[i] = graph.getEdgeSides()[edge];
+            connectionTags[i] = getEdgeTag(edge);
+            if (i > 0) {
+                path.add(graph.getNode(ids[i]));
+            }
         }
-        Collections.reverse(path);
+        // cached paths are shared by all the callers
+        return new NetworkPath(distance, Collections.unmodifiableList(path), connectionSides, connectionTags);
+    }
 
-        return new NetworkPath(distances.get(end), path);
+    /**
+     * Finds the shortest path with A*, using the Manhattan distance to the end as the heuristic. As every step
+     * changes the estimated path length by a whole number, the open nodes are kept in a bucket per estimated
+     * length instead of a priority queue. Each bucket is a stack, which prefers the nodes reached last and so
+     * the ones closest to the end.
+     */
+    private NetworkPath getPathAStar(SpatialNetworkNode start, SpatialNetworkNode end, EdgeFilter edgeFilter) {
+        int startId = graph.getId(start);
+        int endId = graph.getId(end);
+        long endLocation = spatialNodes.getLocation(endId);
+        // where the value is the id of the node it was reached from
+        SearchBuffers buffers = getSearchBuffers();
+        NodeIdIntMap cameFrom = buffers.clearedMap(0);
+        NodeIdIntMap distances = buffers.clearedMap(1);
+        NodeIdIntMap visitedNodes = buffers.clearedMap(2);
+        List<IntArrayDeque> openNodes = Lists.newArrayList();
+
+        int minimumLength = PackedBlockLocation.getManhattanDistance(spatialNodes.getLocation(startId), endLocation);
+        distances.put(startId, 0);
+        addOpenNode(openNodes, minimumLength, minimumLength, startId);
+        int[] edges = graph.getEdges();
+        for (int bucket = 0; bucket < openNodes.size(); bucket++) {
+            IntArrayDeque bucketNodes = openNodes.get(bucket);
+            while (bucketNodes != null && !bucketNodes.isEmpty()) {
+                int currentId = bucketNodes.pollLast();
+                NetworkNode currentNode = graph.getNode(currentId);
+                int currentDistance = distances.get(currentId, -1);
+                if (currentDistance + PackedBlockLocation.getManhattanDistance(spatialNodes.getLocation(currentId), endLocation) != minimumLength + bucket
+                        || visitedNodes.contains(currentId)) {
+                    // the node has been reached with a shorter distance since it has been put in this bucket
+                    continue;
+                }
+                visitedNodes.put(currentId, 0);
+                if (currentId == endId) {
+                    int[] ids = new int[currentDistance + 1];
+                    ids[0] = startId;
+                    for (int id = currentId, index = currentDistance; id != startId; id = cameFrom.get(id, -1)) {
+                        ids[index--] = id;
+                    }
+                    return createPath(currentDistance, ids);
+                }
+
+                for (int i = graph.getEdgeStart(currentId), last = i + graph.getEdgeCount(currentId); i < last; i++) {
+                    int connectedId = edges[i];
+                    if (visitedNodes.contains(connectedId)) {
+                        continue;
+                    }
+                    NetworkNode connectedNode = graph.getNode(connectedId);
+                    // filter out any undesired edges
+                    if (isFilteredOut(edgeFilter, currentNode, connectedNode, i)) {
+                        continue;
+                    }
+
+                    if (distances.get(connectedId, Integer.MAX_VALUE) > currentDistance + 1) {
+                        distances.put(connectedId, currentDistance + 1);
+                        cameFrom.put(connectedId, currentId);
+                        int estimatedLength = currentDistance + 1 + PackedBlockLocation.getManhattanDistance(spatialNodes.getLocation(connectedId), endLocation);
+                        addOpenNode(openNodes, minimumLength, estimatedLength, connectedId);
+                    }
+                }
+                // the bucket may have been replaced if this was the first node added to it
+                bucketNodes = openNodes.get(bucket);
+            }
+        }
+
+        return null;
+    }
+
+    private static void addOpenNode(List<IntArrayDeque> openNodes, int minimumLength, int estimatedLength, int id) {
+        int bucket = estimatedLength - minimumLength;
+        while (openNodes.size() <= bucket) {
+            openNodes.add(null);
+        }
+        IntArrayDeque bucketNodes = openNodes.get(bucket);
+        if (bucketNodes == null) {
+            bucketNodes = new IntArrayDeque();
+            openNodes.set(bucket, bucketNodes);
+        }
+        bucketNodes.addLast(id);
+    }
+
+    /**
+     * Visits all the nodes adjacent to the nodes currently in the queue, the backward search follows the edges in
+     * the opposite direction.
+     *
+     * @return id of a node that has been visited by the other search too, or -1 if there is none yet
+     */
+    private int expandLevel(IntArrayDeque currentNodes, NodeIdIntMap cameFrom, NodeIdIntMap otherCameFrom,
+                            EdgeFilter edgeFilter, boolean forward) {
+        int[] edges = graph.getEdges();
+        for (int n = currentNodes.size(); n > 0; n--) {
+            int currentId = currentNodes.pollFirst();
+            NetworkNode currentNode = graph.getNode(currentId);
+            for (int i = graph.getEdgeStart(currentId), end = i + graph.getEdgeCount(currentId); i < end; i++) {
+                int connectedId = edges[i];
+                if (cameFrom.contains(connectedId)) {
+                    continue;
+                }
+                // filter out any undesired edges
+                if (edgeFilter != null) {
+                    NetworkNode connectedNode = graph.getNode(connectedId);
+                    if (forward ? isFilteredOut(edgeFilter, currentNode, connectedNode, i)
+                            : isFilteredOut(edgeFilter, connectedNode, currentNode, graph.findEdge(connectedId, currentId))) {
+                        continue;
+                    }
+                }
+
+                cameFrom.put(connectedId, currentId);
+                if (otherCameFrom.contains(connectedId)) {
+                    return connectedId;
+                }
+                currentNodes.addLast(connectedId);
+            }
+        }
+        return -1;
     }
 
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.terasology.math.Side;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable view of all the networks of a block network at the time it was taken, which can be queried from any
+ * thread without blocking the block network. Networks that have not been modified since the previous snapshot
+ * share their copy with it, and so does the index of the network of each node, which is split into buckets by
+ * the hash of the node, so only the buckets with nodes of modified networks are copied.
+ *
+ * Paths are found with a breadth-first search from the start node.
+ */
+public final class BlockNetworkSnapshot {
+    private static final ThreadLocal<SearchBuffers> SEARCH_BUFFERS = new ThreadLocal<SearchBuffers>() {
+        @Override
+        protected SearchBuffers initialValue() {
+            return new SearchBuffers();
+        }
+    };
+
+    private final ImmutableMap<Network, NetworkSnapshot> networkSnapshots;
+    private final MembershipBucket[] buckets;
+    private final int networkSize;
+
+    /**
+     * @param previous snapshot to share the unmodified parts with, null if there is none
+     */
+    BlockNetworkSnapshot(BlockNetworkSnapshot previous, ImmutableMap<Network, NetworkSnapshot> networkSnapshots, int networkSize) {
+        this.networkSnapshots = networkSnapshots;
+        this.networkSize = networkSize;
+
+        int bucketCount = Integer.highestOneBit(Math.max(1, networkSize / 16));
+        BlockNetworkSnapshot shared = null;
+        if (previous != null && previous.buckets.length >= bucketCount / 4 && previous.buckets.length <= bucketCount * 4) {
+            // keep the buckets of the previous snapshot, unless the number of nodes has changed a lot
+            shared = previous;
+            bucketCount = previous.buckets.length;
+        }
+        int mask = bucketCount - 1;
+
+        MembershipBucket.Builder[] builders = new MembershipBucket.Builder[bucketCount];
+        List<NetworkSnapshot> copiedNetworks = Lists.newArrayList();
+        if (shared == null) {
+            copiedNetworks.addAll(networkSnapshots.values());
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                builders[bucket] = new MembershipBucket.Builder();
+            }
+        } else {
+            // nodes of the networks that have been modified or removed may have changed their network
+            for (NetworkSnapshot networkSnapshot : networkSnapshots.values()) {
+                if (shared.networkSnapshots.get(networkSnapshot.getNetwork()) != networkSnapshot) {
+                    copiedNetworks.add(networkSnapshot);
+                    markChangedBuckets(networkSnapshot, builders, mask);
+                }
+            }
+            for (NetworkSnapshot previousSnapshot : shared.networkSnapshots.values()) {
+                if (networkSnapshots.get(previousSnapshot.getNetwork()) != previousSnapshot) {
+                    markChangedBuckets(previousSnapshot, builders, mask);
+                }
+            }
+        }
+
+        buckets = new MembershipBucket[bucketCount];
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            if (builders[bucket] == null) {
+                buckets[bucket] = shared.buckets[bucket];
+            } else if (shared != null) {
+                shared.buckets[bucket].copyCurrentTo(builders[bucket], networkSnapshots);
+            }
+        }
+        for (NetworkSnapshot networkSnapshot : copiedNetworks) {
+            for (int i = 0; i < networkSnapshot.size(); i++) {
+                NetworkNode node = networkSnapshot.getNode(i);
+                builders[mix(node.hashCode()) & mask].add(node, networkSnapshot);
+            }
+        }
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            if (builders[bucket] != null) {
+                buckets[bucket] = builders[bucket].build();
+            }
+        }
+    }
+
+    private static void markChangedBuckets(NetworkSnapshot networkSnapshot, MembershipBucket.Builder[] builders, int mask) {
+        for (int i = 0; i < networkSnapshot.size(); i++) {
+            int bucket = mix(networkSnapshot.getNode(i).hashCode()) & mask;
+            if (builders[bucket] == null) {
+                builders[bucket] = new MembershipBucket.Builder();
+            }
+        }
+    }
+
+    /**
+     * @return the copy of the network, to be reused by the next snapshot if the network stays the same
+     */
+    NetworkSnapshot getNetworkSnapshot(Network network) {
+        return networkSnapshots.get(network);
+    }
+
+    public Collection<Network> getNetworks() {
+        return networkSnapshots.keySet();
+    }
+
+    public boolean isNetworkActive(Network network) {
+        return networkSnapshots.containsKey(network);
+    }
+
+    public int getNetworkSize() {
+        return networkSize;
+    }
+
+    /**
+     * @return the nodes of the network, or null if the network was not active
+     */
+    public List<NetworkNode> getNetworkNodes(Network network) {
+        NetworkSnapshot networkSnapshot = networkSnapshots.get(network);
+        return networkSnapshot != null ? networkSnapshot.getNodes() : null;
+    }
+
+    public boolean hasNetworkingNode(Network network, NetworkNode networkNode) {
+        NetworkSnapshot networkSnapshot = networkSnapshots.get(network);
+        return networkSnapshot != null && networkSnapshot.indexOf(networkNode) != -1;
+    }
+
+    public Network getNetwork(NetworkNode networkNode) {
+        NetworkSnapshot networkSnapshot = findNetworkSnapshot(networkNode);
+        return networkSnapshot != null ? networkSnapshot.getNetwork() : null;
+    }
+
+    public boolean areInSameNetwork(NetworkNode networkNode1, NetworkNode networkNode2) {
+        NetworkSnapshot networkSnapshot = findNetworkSnapshot(networkNode1);
+        return networkSnapshot != null && networkSnapshot == findNetworkSnapshot(networkNode2);
+    }
+
+    private NetworkSnapshot findNetworkSnapshot(NetworkNode networkNode) {
+        return buckets[mix(networkNode.hashCode()) & (buckets.length - 1)].get(networkNode);
+    }
+
+    /**
+     * @return the nodes connected to the node, or null if the node was not in the block network
+     */
+    public List<NetworkNode> getAdjacentNodes(NetworkNode node) {
+        NetworkSnapshot networkSnapshot = findNetworkSnapshot(node);
+        if (networkSnapshot == null) {
+            return null;
+        }
+        int index = networkSnapshot.indexOf(node);
+        List<NetworkNode> adjacentNodes = Lists.newArrayListWithCapacity(networkSnapshot.getEdgeEnd(index) - networkSnapshot.getEdgeStart(index));
+        for (int edge = networkSnapshot.getEdgeStart(index); edge < networkSnapshot.getEdgeEnd(index); edge++) {
+            adjacentNodes.add(networkSnapshot.getNode(networkSnapshot.getEdges()[edge]));
+        }
+        return adjacentNodes;
+    }
+
+    /**
+     * @return side of the from node that the connection to the other node leaves through, null if the nodes were
+     * not connected or either of them is not spatial
+     */
+    public Side getConnectionSide(NetworkNode from, NetworkNode to) {
+        NetworkSnapshot networkSnapshot = findNetworkSnapshot(from);
+        int edge = findEdge(networkSnapshot, from, to);
+        return edge != -1 ? SideDirections.getSide(networkSnapshot.getEdgeSide(edge)) : null;
+    }
+
+    /**
+     * @return tag of the connection from one node to the other, 0 if the nodes were not connected or there was no
+     * edge tag function
+     */
+    public int getConnectionTag(NetworkNode from, NetworkNode to) {
+        NetworkSnapshot networkSnapshot = findNetworkSnapshot(from);
+        int edge = findEdge(networkSnapshot, from, to);
+        return edge != -1 ? networkSnapshot.getEdgeTag(edge) : 0;
+    }
+
+    private static int findEdge(NetworkSnapshot networkSnapshot, NetworkNode from, NetworkNode to) {
+        if (networkSnapshot == null) {
+            return -1;
+        }
+        int toIndex = networkSnapshot.indexOf(to);
+        return toIndex != -1 ? networkSnapshot.findEdge(networkSnapshot.indexOf(from), toIndex) : -1;
+    }
+
+    public int getDistance(NetworkNode from, NetworkNode to) {
+        return getDistance(from, to, null);
+    }
+
+    /**
+     * @return the distance between the nodes, or -1 if there is no path between them
+     */
+    public int getDistance(NetworkNode from, NetworkNode to, EdgeFilter edgeFilter) {
+        NetworkPath path = getPath(from, to, edgeFilter);
+        return path != null ? path.getDistance() : -1;
+    }
+
+    public boolean isInDistance(int distance, NetworkNode from, NetworkNode to) {
+        return isInDistance(distance, from, to, null);
+    }
+
+    public boolean isInDistance(int distance, NetworkNode from, NetworkNode to, EdgeFilter edgeFilter) {
+        if (from.equals(to)) {
+            return distance >= 0;
+        }
+        return findPath(from, to, edgeFilter, distance) != null;
+    }
+
+    public NetworkPath getPath(NetworkNode start, NetworkNode end) {
+        return getPath(start, end, null);
+    }
+
+    /**
+     * @return the path, or null if there is no path between the nodes
+     */
+    public NetworkPath getPath(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter) {
+        if (start.equals(end)) {
+            return new NetworkPath(0, Sets.<NetworkNode>newLinkedHashSet());
+        }
+        return findPath(start, end, edgeFilter, Integer.MAX_VALUE);
+    }
+
+    private NetworkPath findPath(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter, int maxDistance) {
+        NetworkSnapshot networkSnapshot = findNetworkSnapshot(start);
+        if (networkSnapshot == null || networkSnapshot != findNetworkSnapshot(end)) {
+            return null;
+        }
+        return findDistances(networkSnapshot, networkSnapshot.indexOf(start), networkSnapshot.indexOf(end), maxDistance, edgeFilter).getPath(end);
+    }
+
+    public NetworkDistanceMap getDistances(NetworkNode source) {
+        return getDistances(source, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param maxDistance nodes further away than this are not searched
+     * @return the distances, or null if the source was not in the block network
+     */
+    public NetworkDistanceMap getDistances(NetworkNode source, int maxDistance, EdgeFilter edgeFilter) {
+        NetworkSnapshot networkSnapshot = findNetworkSnapshot(source);
+        if (networkSnapshot == null) {
+            return null;
+        }
+        return findDistances(networkSnapshot, networkSnapshot.indexOf(source), -1, maxDistance, edgeFilter);
+    }
+
+    /**
+     * @param targetIndex the search stops once this node is reached, -1 to search all reachable nodes
+     */
+    private static NetworkDistanceMap findDistances(NetworkSnapshot networkSnapshot, int sourceIndex, int targetIndex,
+                                                    int maxDistance, EdgeFilter edgeFilter) {
+        NetworkDistanceMap distanceMap = new NetworkDistanceMap(networkSnapshot.getNode(sourceIndex));
+        SearchBuffers buffers = SEARCH_BUFFERS.get();
+        NodeIdIntMap reachedNodes = buffers.clearedMap(0);
+        IntArrayDeque queue = buffers.clearedQueue(0);
+        reachedNodes.put(sourceIndex, 0);
+        queue.addLast(sourceIndex);
+        int[] edges = networkSnapshot.getEdges();
+        // the n-th node taken from the queue has index n in the distance map
+        for (int current = 0; !queue.isEmpty(); current++) {
+            int currentIndex = queue.pollFirst();
+            int distance = distanceMap.getDistance(current);
+            if (distance >= maxDistance) {
+                break;
+            }
+
+            NetworkNode currentNode = networkSnapshot.getNode(currentIndex);
+            for (int edge = networkSnapshot.getEdgeStart(currentIndex); edge < networkSnapshot.getEdgeEnd(currentIndex); edge++) {
+                int connectedIndex = edges[edge];
+                if (reachedNodes.contains(connectedIndex)) {
+                    continue;
+                }
+                NetworkNode connectedNode = networkSnapshot.getNode(connectedIndex);
+                byte side = networkSnapshot.getEdgeSide(edge);
+                int tag = networkSnapshot.getEdgeTag(edge);
+                // filter out any undesired edges
+                if (edgeFilter != null && !edgeFilter.test(currentNode, connectedNode, SideDirections.getSide(side), tag)) {
+                    continue;
+                }
+                reachedNodes.put(connectedIndex, 0);
+                distanceMap.add(connectedNode, distance + 1, current, side, tag);
+                if (connectedIndex == targetIndex) {
+                    return distanceMap;
+                }
+                queue.addLast(connectedIndex);
+            }
+        }
+        return distanceMap;
+    }
+
+    private static int mix(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+
+    /**
+     * The network of each node with a hash in one bucket, in an open addressing table.
+     */
+    private static final class MembershipBucket {
+        private final NetworkNode[] nodes;
+        private final NetworkSnapshot[] networkSnapshots;
+
+        private MembershipBucket(List<NetworkNode> bucketNodes, List<NetworkSnapshot> bucketNetworkSnapshots) {
+            int length = Integer.highestOneBit(Math.max(1, bucketNodes.size())) * 4;
+            nodes = new NetworkNode[length];
+            networkSnapshots = new NetworkSnapshot[length];
+            int mask = length - 1;
+            for (int i = 0; i < bucketNodes.size(); i++) {
+                NetworkNode node = bucketNodes.get(i);
+                int slot = slotHash(node) & mask;
+                while (nodes[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                nodes[slot] = node;
+                networkSnapshots[slot] = bucketNetworkSnapshots.get(i);
+            }
+        }
+
+        private NetworkSnapshot get(NetworkNode node) {
+            int mask = nodes.length - 1;
+            for (int slot = slotHash(node) & mask; nodes[slot] != null; slot = (slot + 1) & mask) {
+                if (nodes[slot].equals(node)) {
+                    return networkSnapshots[slot];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Copies the nodes of the networks that are still the same in the given snapshots.
+         */
+        private void copyCurrentTo(Builder builder, ImmutableMap<Network, NetworkSnapshot> currentSnapshots) {
+            for (int slot = 0; slot < nodes.length; slot++) {
+                if (nodes[slot] != null && currentSnapshots.get(networkSnapshots[slot].getNetwork()) == networkSnapshots[slot]) {
+                    builder.add(nodes[slot], networkSnapshots[slot]);
+                }
+            }
+        }
+
+        private static int slotHash(NetworkNode node) {
+            // the low bits of the mixed hash select the bucket, so the slot uses the high bits
+            return mix(node.hashCode()) >>> 16;
+        }
+
+        private static final class Builder {
+            private final List<NetworkNode> nodes = Lists.newArrayList();
+            private final List<NetworkSnapshot> networkSnapshots = Lists.newArrayList();
+
+            private void add(NetworkNode node, NetworkSnapshot networkSnapshot) {
+                nodes.add(node);
+                networkSnapshots.add(networkSnapshot);
+            }
+
+            private MembershipBucket build() {
+                return new MembershipBucket(nodes, networkSnapshots);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Topology listener that queues the events of a block network and passes them on to another listener in batches,
+ * so the listener does not slow down the modifications. Only the net changes of each batch are passed on: a node
+ * added to a network and removed from it again, or a network added and removed again, is left out entirely.
+ * The remaining events keep their order, except that all the removals of a batch come before all the additions.
+ * Merges are passed on as the nodes moving from one network to the other.
+ */
+public class CoalescingTopologyDispatcher implements NetworkTopologyListener {
+    private final NetworkTopologyListener listener;
+    // null to pass the events on in the thread calling flush
+    private final Executor executor;
+
+    private List<Event> events = Lists.newArrayList();
+    private final Queue<List<Event>> batches = new ConcurrentLinkedQueue<List<Event>>();
+    private final Object deliveryLock = new Object();
+
+    /**
+     * @param listener gets the events when flush is called, in the same thread
+     */
+    public CoalescingTopologyDispatcher(NetworkTopologyListener listener) {
+        this(listener, null);
+    }
+
+    /**
+     * @param listener gets the events of each flush in a task run by the executor, the batches are passed on one
+     *                 at a time and in the order they were flushed, even if the executor runs tasks in parallel
+     */
+    public CoalescingTopologyDispatcher(NetworkTopologyListener listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void networkAdded(Network network) {
+        events.add(new Event(EventType.NETWORK_ADDED, network, null));
+    }
+
+    @Override
+    public synchronized void networkingNodeAdded(Network network, NetworkNode networkingNode) {
+        events.add(new Event(EventType.NODE_ADDED, network, networkingNode));
+    }
+
+    @Override
+    public synchronized void networkingNodeRemoved(Network network, NetworkNode networkingNode) {
+        events.add(new Event(EventType.NODE_REMOVED, network, networkingNode));
+    }
+
+    @Override
+    public synchronized void networkRemoved(Network network) {
+        events.add(new Event(EventType.NETWORK_REMOVED, network, null));
+    }
+
+    /**
+     * @return number of events received since the last flush
+     */
+    public synchronized int getQueuedEventCount() {
+        return events.size();
+    }
+
+    /**
+     * Passes on the net changes of all the events received since the last flush.
+     */
+    public void flush() {
+        List<Event> batch;
+        synchronized (this) {
+            if (events.isEmpty()) {
+                return;
+            }
+            batch = coalesce(events);
+            events = Lists.newArrayList();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        batches.add(batch);
+        if (executor != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliverNextBatch();
+                }
+            });
+        } else {
+            deliverNextBatch();
+        }
+    }
+
+    private void deliverNextBatch() {
+        synchronized (deliveryLock) {
+            // every flush adds one batch and delivers one, so this is the oldest batch not delivered yet
+            for (Event event : batches.poll()) {
+                switch (event.type) {
+                    case NETWORK_ADDED:
+                        listener.networkAdded(event.network);
+                        break;
+                    case NODE_ADDED:
+                        listener.networkingNodeAdded(event.network, event.node);
+                        break;
+                    case NODE_REMOVED:
+                        listener.networkingNodeRemoved(event.network, event.node);
+                        break;
+                    case NETWORK_REMOVED:
+                        listener.networkRemoved(event.network);
+                        break;
+                }
+            }
+        }
+    }
+
+    private static List<Event> coalesce(List<Event> events) {
+        // networks both added and removed in the batch, and the net change of each node in each network
+        Set<Network> addedNetworks = Sets.newHashSet();
+        Set<Network> passingNetworks = Sets.newHashSet();
+        Table<Network, NetworkNode, Integer> nodeChanges = HashBasedTable.create();
+        for (Event event : events) {
+            if (event.type == EventType.NETWORK_ADDED) {
+                addedNetworks.add(event.network);
+            } else if (event.type == EventType.NETWORK_REMOVED) {
+                if (addedNetworks.contains(event.network)) {
+                    passingNetworks.add(event.network);
+                }
+            } else {
+                Integer change = nodeChanges.get(event.network, event.node);
+                int newChange = (change != null ? change : 0) + (event.type == EventType.NODE_ADDED ? 1 : -1);
+                nodeChanges.put(event.network, event.node, newChange);
+            }
+        }
+
+        List<Event> coalescedEvents = Lists.newArrayList();
+        // the removals first, so no node is in two networks at once
+        for (Event event : events) {
+            if (!passingNetworks.contains(event.network)
+                    && (event.type == EventType.NETWORK_REMOVED || event.type == EventType.NODE_REMOVED && isNetChange(nodeChanges, event, -1))) {
+                coalescedEvents.add(event);
+            }
+        }
+        for (Event event : events) {
+            if (!passingNetworks.contains(event.network)
+                    && (event.type == EventType.NETWORK_ADDED || event.type == EventType.NODE_ADDED && isNetChange(nodeChanges, event, 1))) {
+                coalescedEvents.add(event);
+            }
+        }
+        return coalescedEvents;
+    }
+
+    /**
+     * @return true for the first event of the node in the network, if the node has been added to it or removed from
+     * it in the end
+     */
+    private static boolean isNetChange(Table<Network, NetworkNode, Integer> nodeChanges, Event event, int change) {
+        Integer nodeChange = nodeChanges.get(event.network, event.node);
+        if (nodeChange != null && nodeChange == change) {
+            // the change is passed on only once
+            nodeChanges.remove(event.network, event.node);
+            return true;
+        }
+        return false;
+    }
+
+    private enum EventType {
+        NETWORK_ADDED, NODE_ADDED, NODE_REMOVED, NETWORK_REMOVED
+    }
+
+    private static final class Event {
+        private final EventType type;
+        private final Network network;
+        // null for the network events
+        private final NetworkNode node;
+
+        private Event(EventType type, Network network, NetworkNode node) {
+            this.type = type;
+            this.network = network;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import org.terasology.math.Side;
+
+/**
+ * Decides which connections a search through the network may use. Searches call test with the two nodes directly,
+ * so no TwoNetworkNodes has to be created for every connection. It is still a Predicate of TwoNetworkNodes, so it
+ * can be passed anywhere a predicate is expected.
+ */
+public abstract class EdgeFilter implements Predicate<TwoNetworkNodes> {
+    /**
+     * @return true if the search may move from one node to the other
+     */
+    public abstract boolean test(NetworkNode from, NetworkNode to);
+
+    /**
+     * Searches call this with what the block network knows about the connection, override it to use that instead
+     * of finding it out again.
+     *
+     * @param side side of the from node the connection leaves through, null if either node is not spatial
+     * @param tag  tag of the connection, 0 if there is no edge tag function
+     * @return true if the search may move from one node to the other
+     */
+    public boolean test(NetworkNode from, NetworkNode to, Side side, int tag) {
+        return test(from, to);
+    }
+
+    @Override
+    public boolean apply(TwoNetworkNodes input) {
+        return test(input.node1, input.node2);
+    }
+
+    /**
+     * @return the predicate as an edge filter, wrapped unless it is one already
+     */
+    public static EdgeFilter fromPredicate(Predicate<TwoNetworkNodes> predicate) {
+        if (predicate == null || predicate instanceof EdgeFilter) {
+            return (EdgeFilter) predicate;
+        }
+        return new PredicateEdgeFilter(predicate);
+    }
+
+    private static final class PredicateEdgeFilter extends EdgeFilter {
+        private final Predicate<TwoNetworkNodes> predicate;
+
+        private PredicateEdgeFilter(Predicate<TwoNetworkNodes> predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean test(NetworkNode from, NetworkNode to) {
+            return predicate.apply(new TwoNetworkNodes(from, to));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            return Objects.equal(predicate, ((PredicateEdgeFilter) o).predicate);
+        }
+
+        @Override
+        public int hashCode() {
+            return predicate.hashCode();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+/**
+ * Tag of a connection between two nodes, found once when the nodes get connected and then passed to edge filters
+ * and kept in paths.
+ */
+public interface EdgeTagFunction {
+    /**
+     * @return tag of the connection from one node to the other
+     */
+    int getTag(NetworkNode from, NetworkNode to);
+}
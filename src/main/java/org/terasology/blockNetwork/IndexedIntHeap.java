@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of non-negative int indexes ordered by an int key, that remembers the position of every index
+ * in the heap so the key of an index already in the heap can be decreased in place.
+ */
+class IndexedIntHeap {
+    private int[] heap = new int[16];
+    private int size;
+    // key of each index, and its position in the heap or -1 if it is not in the heap
+    private int[] keys = new int[16];
+    private int[] positions = new int[16];
+
+    IndexedIntHeap() {
+        Arrays.fill(positions, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    boolean contains(int index) {
+        return index < positions.length && positions[index] != -1;
+    }
+
+    /**
+     * Adds the index with the key, or decreases its key if it is in the heap already with a bigger one.
+     */
+    void insertOrDecrease(int index, int key) {
+        ensureIndexCapacity(index);
+        int position = positions[index];
+        if (position == -1) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            position = size++;
+            heap[position] = index;
+            positions[index] = position;
+        } else if (key >= keys[index]) {
+            return;
+        }
+        keys[index] = key;
+        siftUp(position);
+    }
+
+    /**
+     * @return the index with the smallest key, which is removed from the heap
+     */
+    int pollMin() {
+        int min = heap[0];
+        positions[min] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    private void siftUp(int position) {
+        int index = heap[position];
+        int key = keys[index];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            int parentIndex = heap[parent];
+            if (keys[parentIndex] <= key) {
+                break;
+            }
+            heap[position] = parentIndex;
+            positions[parentIndex] = position;
+            position = parent;
+        }
+        heap[position] = index;
+        positions[index] = position;
+    }
+
+    private void siftDown(int position) {
+        int index = heap[position];
+        int key = keys[index];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            int childIndex = heap[child];
+            if (key <= keys[childIndex]) {
+                break;
+            }
+            heap[position] = childIndex;
+            positions[childIndex] = position;
+            position = child;
+        }
+        heap[position] = index;
+        positions[index] = position;
+    }
+
+    private void ensureIndexCapacity(int index) {
+        if (index >= positions.length) {
+            int newLength = Math.max(positions.length * 2, index + 1);
+            int oldLength = positions.length;
+            keys = Arrays.copyOf(keys, newLength);
+            positions = Arrays.copyOf(positions, newLength);
+            Arrays.fill(positions, oldLength, newLength, -1);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import java.util.Arrays;
+
+/**
+ * Queue of ints, that can be used as a stack too.
+ */
+class IntArrayDeque {
+    private int[] elements = new int[16];
+    private int head;
+    private int tail;
+
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    int size() {
+        return tail - head;
+    }
+
+    void clear() {
+        head = 0;
+        tail = 0;
+    }
+
+    void addLast(int element) {
+        if (tail == elements.length) {
+            if (head > elements.length / 2) {
+                System.arraycopy(elements, head, elements, 0, tail - head);
+            } else {
+                elements = Arrays.copyOf(elements, elements.length * 2);
+                System.arraycopy(elements, head, elements, 0, tail - head);
+            }
+            tail -= head;
+            head = 0;
+        }
+        elements[tail++] = element;
+    }
+
+    /**
+     * @return the element at the index, counted from the first one
+     */
+    int get(int index) {
+        return elements[head + index];
+    }
+
+    int pollFirst() {
+        return elements[head++];
+    }
+
+    int pollLast() {
+        return elements[--tail];
+    }
+}
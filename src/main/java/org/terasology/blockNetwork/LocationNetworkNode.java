@@ -18,7 +18,7 @@ package org.terasology.blockNetwork;
 import org.terasology.math.Side;
 import org.terasology.math.Vector3i;
 
-public class LocationNetworkNode implements NetworkNode {
+public class LocationNetworkNode implements SpatialNetworkNode {
     public final Vector3i location;
 
     public LocationNetworkNode(Vector3i location) {
@@ -53,17 +53,31 @@ public class LocationNetworkNode implements NetworkNode {
     public boolean isConnectedTo(NetworkNode networkNode) {
         if (networkNode == null || !(networkNode instanceof LocationNetworkNode)) return false;
 
-        LocationNetworkNode locationNetworkNode = (LocationNetworkNode) networkNode;
+        Vector3i otherLocation = ((LocationNetworkNode) networkNode).location;
 
-        // allow for blocks to have multiple network connections
-        if( locationNetworkNode.location.equals(location)) return true;
+        // allow for blocks to have multiple network connections, and connect to the blocks on any side
+        return Math.abs(otherLocation.x - location.x) + Math.abs(otherLocation.y - location.y)
+                + Math.abs(otherLocation.z - location.z) <= 1;
+    }
 
-        for(Side side : Side.values()) {
-            if( locationNetworkNode.location.equals(side.getAdjacentPos(location))) {
-                return true;
-            }
-        }
+    public ImmutableBlockLocation getBlockLocation() {
+        return new ImmutableBlockLocation(location);
+    }
 
-        return false;
+    @Override
+    public long getPackedLocation() {
+        return PackedBlockLocation.pack(location);
+    }
+
+    @Override
+    public long[] getConnectableLocations() {
+        long packedLocation = getPackedLocation();
+        Side[] sides = Side.values();
+        long[] result = new long[sides.length + 1];
+        result[0] = packedLocation;
+        for (int i = 0; i < sides.length; i++) {
+            result[i + 1] = PackedBlockLocation.move(packedLocation, sides[i]);
+        }
+        return result;
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Distances from a single source node to all the nodes reachable from it, with the node each of them is reached
+ * from, so a path to any of them can be built without searching again.
+ * The nodes are kept in arrays in the order they were reached, and looked up through an open addressing table
+ * of indexes into those arrays, which is only built once a node is first looked up.
+ */
+public class NetworkDistanceMap {
+    private NetworkNode[] nodes = new NetworkNode[16];
+    private int[] distances = new int[16];
+    // index of the node each node was reached from, -1 for the source
+    private int[] predecessors = new int[16];
+    // side and tag of the connection each node was reached through
+    private byte[] sides = new byte[16];
+    private int[] tags = new int[16];
+    private int size;
+    // index + 1 of the node hashed into each slot, 0 for an empty slot, null until it is needed
+    private int[] slots;
+
+    NetworkDistanceMap(NetworkNode source) {
+        add(source, 0, -1, NetworkGraph.NO_SIDE, 0);
+    }
+
+    public NetworkNode getSource() {
+        return nodes[0];
+    }
+
+    /**
+     * @return number of reachable nodes, including the source
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(NetworkNode node) {
+        return indexOf(node) != -1;
+    }
+
+    /**
+     * @return the distance to the node, or -1 if it is not reachable
+     */
+    public int getDistance(NetworkNode node) {
+        int index = indexOf(node);
+        return index != -1 ? distances[index] : -1;
+    }
+
+    /**
+     * @return the path from the source to the node, or null if it is not reachable
+     */
+    public NetworkPath getPath(NetworkNode node) {
+        int index = indexOf(node);
+        if (index == -1) {
+            return null;
+        }
+
+        int connectionCount = 0;
+        for (int i = index; i > 0; i = predecessors[i]) {
+            connectionCount++;
+        }
+        List<NetworkNode> path = Lists.newArrayListWithCapacity(Math.max(0, connectionCount - 1));
+        byte[] connectionSides = new byte[connectionCount];
+        int[] connectionTags = new int[connectionCount];
+        for (int i = index; i > 0; i = predecessors[i]) {
+            connectionCount--;
+            connectionSides[connectionCount] = sides[i];
+            connectionTags[connectionCount] = tags[i];
+            if (i != index) {
+                path.add(nodes[i]);
+            }
+        }
+        Collections.reverse(path);
+        return new NetworkPath(distances[index], Collections.unmodifiableList(path), connectionSides, connectionTags);
+    }
+
+    /**
+     * @return all the reachable nodes, in the order they were first reached, which for unweighted searches is
+     * ordered by distance
+     */
+    public List<NetworkNode> getReachableNodes() {
+        return Collections.unmodifiableList(Arrays.asList(nodes).subList(0, size));
+    }
+
+    NetworkNode getNode(int index) {
+        return nodes[index];
+    }
+
+    int getDistance(int index) {
+        return distances[index];
+    }
+
+    void update(int index, int distance, int predecessor, byte side, int tag) {
+        distances[index] = distance;
+        predecessors[index] = predecessor;
+        sides[index] = side;
+        tags[index] = tag;
+    }
+
+    int indexOf(NetworkNode node) {
+        if (slots == null) {
+            slots = new int[Math.max(32, Integer.highestOneBit(size) * 4)];
+            for (int i = 0; i < size; i++) {
+                addSlot(i);
+            }
+        }
+        int mask = slots.length - 1;
+        for (int slot = mix(node.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (nodes[slots[slot] - 1].equals(node)) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a node that is not in the map yet.
+     *
+     * @return index of the added node
+     */
+    int add(NetworkNode node, int distance, int predecessor, byte side, int tag) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            distances = Arrays.copyOf(distances, size * 2);
+            predecessors = Arrays.copyOf(predecessors, size * 2);
+            sides = Arrays.copyOf(sides, size * 2);
+            tags = Arrays.copyOf(tags, size * 2);
+        }
+        nodes[size] = node;
+        distances[size] = distance;
+        predecessors[size] = predecessor;
+        sides[size] = side;
+        tags[size] = tag;
+        size++;
+
+        if (slots == null) {
+            return size - 1;
+        }
+        if (size * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++) {
+                addSlot(i);
+            }
+        } else {
+            addSlot(size - 1);
+        }
+        return size - 1;
+    }
+
+    private void addSlot(int index) {
+        int mask = slots.length - 1;
+        int slot = mix(nodes[index].hashCode()) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private static int mix(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+}
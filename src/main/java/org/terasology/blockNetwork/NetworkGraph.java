@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The nodes of a block network and the connections between them. Each node gets a dense int id, and the ids of
+ * the nodes connected to it are kept in a slice of one shared int array, so searches can run over ids and primitive
+ * arrays instead of hash maps. A slice that runs out of room is moved to the end of the shared array with twice the
+ * room, and the shared array is compacted when it would otherwise have to grow while mostly unused.
+ * Ids of removed nodes are reused.
+ * Each connection has the side it leaves its node through and a tag, kept in arrays parallel to the shared array.
+ * The tags are only kept once they are enabled.
+ */
+class NetworkGraph {
+    static final byte NO_SIDE = -1;
+
+    private static final int INITIAL_EDGE_CAPACITY = 4;
+    private static final int MIN_EDGES_LENGTH = 64;
+
+    private NetworkNode[] nodes = new NetworkNode[16];
+    private int[] hashes = new int[16];
+    private Network[] networks = new Network[16];
+    // where the slice of each node starts in edges, how many connections it has, and how many fit in it
+    private int[] edgeStarts = new int[16];
+    private int[] edgeCounts = new int[16];
+    private int[] edgeCapacities = new int[16];
+    private int[] edges = new int[MIN_EDGES_LENGTH];
+    private byte[] edgeSides = new byte[MIN_EDGES_LENGTH];
+    private int[] edgeTags;
+    // end of the used part of edges, and the total capacity of the slices in it
+    private int edgesEnd;
+    private int edgeCapacity;
+    private int edgeCount;
+
+    private int size;
+    // ids below this have been given out, the free ones among them are on the stack of free ids
+    private int idLimit;
+    private int[] freeIds = new int[16];
+    private int freeIdCount;
+    // id + 1 of the node hashed into each slot, 0 for an empty slot
+    private int[] slots = new int[32];
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of connections, each counted once
+     */
+    int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return an upper bound of the ids in use
+     */
+    int getIdLimit() {
+        return idLimit;
+    }
+
+    /**
+     * @return id of the node, or -1 if it is not in the graph
+     */
+    int getId(NetworkNode node) {
+        int hash = mix(node.hashCode());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && nodes[id].equals(node)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    boolean contains(NetworkNode node) {
+        return getId(node) != -1;
+    }
+
+    /**
+     * @return the node with the id, or null if the id is not in use
+     */
+    NetworkNode getNode(int id) {
+        return nodes[id];
+    }
+
+    Network getNetwork(int id) {
+        return networks[id];
+    }
+
+    void setNetwork(int id, Network network) {
+        networks[id] = network;
+    }
+
+    /**
+     * The ids of the nodes connected to a node are getEdges()[getEdgeStart(id)] to
+     * getEdges()[getEdgeStart(id) + getEdgeCount(id) - 1]. The array is replaced when connections are added.
+     */
+    int[] getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return the connection sides, with the same indexes as getEdges(), as ordinals of Side or NO_SIDE
+     */
+    byte[] getEdgeSides() {
+        return edgeSides;
+    }
+
+    /**
+     * @return the connection tags, with the same indexes as getEdges(), or null if tags are not enabled
+     */
+    int[] getEdgeTags() {
+        return edgeTags;
+    }
+
+    void setEdgeTagsEnabled(boolean enabled) {
+        edgeTags = enabled ? new int[edges.length] : null;
+    }
+
+    /**
+     * @return index of the connection in getEdges(), or -1 if the nodes are not connected
+     */
+    int findEdge(int from, int to) {
+        for (int i = edgeStarts[from], end = i + edgeCounts[from]; i < end; i++) {
+            if (edges[i] == to) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int getEdgeStart(int id) {
+        return edgeStarts[id];
+    }
+
+    int getEdgeCount(int id) {
+        return edgeCounts[id];
+    }
+
+    List<NetworkNode> getAdjacentNodes(int id) {
+        List<NetworkNode> adjacentNodes = Lists.newArrayListWithCapacity(edgeCounts[id]);
+        for (int i = edgeStarts[id], end = i + edgeCounts[id]; i < end; i++) {
+            adjacentNodes.add(nodes[edges[i]]);
+        }
+        return adjacentNodes;
+    }
+
+    /**
+     * Adds a node that is not in the graph yet.
+     *
+     * @return id of the added node
+     */
+    int add(NetworkNode node) {
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            if (idLimit == nodes.length) {
+                int newLength = idLimit * 2;
+                nodes = Arrays.copyOf(nodes, newLength);
+                hashes = Arrays.copyOf(hashes, newLength);
+                networks = Arrays.copyOf(networks, newLength);
+                edgeStarts = Arrays.copyOf(edgeStarts, newLength);
+                edgeCounts = Arrays.copyOf(edgeCounts, newLength);
+                edgeCapacities = Arrays.copyOf(edgeCapacities, newLength);
+            }
+            id = idLimit++;
+        }
+        nodes[id] = node;
+        hashes[id] = mix(node.hashCode());
+        size++;
+
+        if (size * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < idLimit; i++) {
+                if (nodes[i] != null) {
+                    addSlot(i);
+                }
+            }
+        } else {
+            addSlot(id);
+        }
+        return id;
+    }
+
+    /**
+     * Removes the node and all its connections.
+     */
+    void remove(int id) {
+        for (int i = edgeStarts[id], end = i + edgeCounts[id]; i < end; i++) {
+            removeEdge(edges[i], id);
+        }
+        edgeCount -= edgeCounts[id];
+        edgeCapacity -= edgeCapacities[id];
+        edgeStarts[id] = 0;
+        edgeCounts[id] = 0;
+        edgeCapacities[id] = 0;
+
+        removeSlot(id);
+        nodes[id] = null;
+        networks[id] = null;
+        size--;
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+        }
+        freeIds[freeIdCount++] = id;
+
+        if (edgesEnd > MIN_EDGES_LENGTH && edgeCapacity < edgesEnd / 4) {
+            compactEdges(0);
+        }
+    }
+
+    /**
+     * Puts another node in place of the node with the id, keeping its connections.
+     */
+    void replace(int id, NetworkNode node) {
+        removeSlot(id);
+        nodes[id] = node;
+        hashes[id] = mix(node.hashCode());
+        addSlot(id);
+    }
+
+    /**
+     * Connects the nodes in both directions, with the side and tag of each direction.
+     *
+     * @return false if they were connected already
+     */
+    boolean connect(int id1, int id2, byte side1, byte side2, int tag1, int tag2) {
+        if (findEdge(id1, id2) != -1) {
+            return false;
+        }
+        addEdge(id1, id2, side1, tag1);
+        addEdge(id2, id1, side2, tag2);
+        edgeCount++;
+        return true;
+    }
+
+    /**
+     * Removes the connection between the nodes in both directions.
+     *
+     * @return false if they were not connected
+     */
+    boolean disconnect(int id1, int id2) {
+        if (findEdge(id1, id2) == -1) {
+            return false;
+        }
+        removeEdge(id1, id2);
+        removeEdge(id2, id1);
+        edgeCount--;
+        return true;
+    }
+
+    private void addEdge(int from, int to, byte side, int tag) {
+        if (edgeCounts[from] == edgeCapacities[from]) {
+            moveSlice(from, Math.max(INITIAL_EDGE_CAPACITY, edgeCapacities[from] * 2));
+        }
+        int index = edgeStarts[from] + edgeCounts[from]++;
+        edges[index] = to;
+        edgeSides[index] = side;
+        if (edgeTags != null) {
+            edgeTags[index] = tag;
+        }
+    }
+
+    private void removeEdge(int from, int to) {
+        int index = findEdge(from, to);
+        int last = edgeStarts[from] + --edgeCounts[from];
+        copyEdge(last, index);
+    }
+
+    private void copyEdge(int from, int to) {
+        edges[to] = edges[from];
+        edgeSides[to] = edgeSides[from];
+        if (edgeTags != null) {
+            edgeTags[to] = edgeTags[from];
+        }
+    }
+
+    /**
+     * Moves the slice of the node to the end of the used part of the edges, the old slice is left unused.
+     */
+    private void moveSlice(int id, int capacity) {
+        if (edgesEnd + capacity > edges.length) {
+            if (edgeCapacity + capacity <= edges.length / 2) {
+                compactEdges(capacity);
+            } else {
+                int newLength = Math.max(edges.length * 2, edgesEnd + capacity);
+                edges = Arrays.copyOf(edges, newLength);
+                edgeSides = Arrays.copyOf(edgeSides, newLength);
+                if (edgeTags != null) {
+                    edgeTags = Arrays.copyOf(edgeTags, newLength);
+                }
+            }
+        }
+        for (int i = 0; i < edgeCounts[id]; i++) {
+            copyEdge(edgeStarts[id] + i, edgesEnd + i);
+        }
+        edgeCapacity += capacity - edgeCapacities[id];
+        edgeStarts[id] = edgesEnd;
+        edgeCapacities[id] = capacity;
+        edgesEnd += capacity;
+    }
+
+    /**
+     * Copies the slices of all the nodes next to each other into a new array.
+     *
+     * @param extraCapacity room to leave after the copied slices
+     */
+    private void compactEdges(int extraCapacity) {
+        int newLength = Math.max(MIN_EDGES_LENGTH, (edgeCapacity + extraCapacity) * 3 / 2);
+        int[] newEdges = new int[newLength];
+        byte[] newEdgeSides = new byte[newLength];
+        int[] newEdgeTags = edgeTags != null ? new int[newLength] : null;
+        int newEnd = 0;
+        for (int id = 0; id < idLimit; id++) {
+            if (edgeCapacities[id] > 0) {
+                System.arraycopy(edges, edgeStarts[id], newEdges, newEnd, edgeCounts[id]);
+                System.arraycopy(edgeSides, edgeStarts[id], newEdgeSides, newEnd, edgeCounts[id]);
+                if (edgeTags != null) {
+                    System.arraycopy(edgeTags, edgeStarts[id], newEdgeTags, newEnd, edgeCounts[id]);
+                }
+                edgeStarts[id] = newEnd;
+                newEnd += edgeCapacities[id];
+            }
+        }
+        edges = newEdges;
+        edgeSides = newEdgeSides;
+        edgeTags = newEdgeTags;
+        edgesEnd = newEnd;
+    }
+
+    private void addSlot(int id) {
+        int mask = slots.length - 1;
+        int slot = hashes[id] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private void removeSlot(int id) {
+        int mask = slots.length - 1;
+        int hole = hashes[id] & mask;
+        while (slots[hole] != id + 1) {
+            hole = (hole + 1) & mask;
+        }
+        // move back the following entries that would not be found past the hole
+        for (int slot = (hole + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hashes[slots[slot] - 1] & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    private static int mix(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+}
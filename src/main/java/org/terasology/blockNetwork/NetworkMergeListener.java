@@ -0,0 +1,19 @@
+package org.terasology.blockNetwork;
+
+import java.util.Collection;
+
+/**
+ * A topology listener that is notified about merged networks with a single call. Listeners that don't implement
+ * this interface are notified about every node moved by the merge instead.
+ */
+public interface NetworkMergeListener extends NetworkTopologyListener {
+    /**
+     * Called instead of networkingNodeRemoved and networkingNodeAdded for each moved node, and networkRemoved for
+     * the source network.
+     *
+     * @param target     network that the nodes were moved to, it stays active
+     * @param source     network that the nodes were moved from, it is no longer active
+     * @param movedNodes all the nodes that were in the source network
+     */
+    public void networksMerged(Network target, Network source, Collection<NetworkNode> movedNodes);
+}
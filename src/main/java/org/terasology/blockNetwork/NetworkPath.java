@@ -15,13 +15,27 @@
  */
 package org.terasology.blockNetwork;
 
+import org.terasology.math.Side;
+
 public class NetworkPath {
+    private static final byte[] NO_SIDES = new byte[0];
+    private static final int[] NO_TAGS = new int[0];
+
     private int distance;
     private Iterable<NetworkNode> path;
+    // side and tag of each connection on the path, from the start to the end
+    private byte[] connectionSides;
+    private int[] connectionTags;
 
     public NetworkPath(int distance, Iterable<NetworkNode> path) {
+        this(distance, path, NO_SIDES, NO_TAGS);
+    }
+
+    NetworkPath(int distance, Iterable<NetworkNode> path, byte[] connectionSides, int[] connectionTags) {
         this.distance = distance;
         this.path = path;
+        this.connectionSides = connectionSides;
+        this.connectionTags = connectionTags;
     }
 
     public int getDistance() {
@@ -31,4 +45,28 @@ public class NetworkPath {
     public Iterable<NetworkNode> getPath() {
         return path;
     }
+
+    /**
+     * @return number of connections on the path, 0 for paths not found by a block network
+     */
+    public int getConnectionCount() {
+        return connectionSides.length;
+    }
+
+    /**
+     * @param index of the connection, counted from the start
+     * @return side of the node before the connection that the connection leaves through, null if either node is
+     * not spatial
+     */
+    public Side getConnectionSide(int index) {
+        return SideDirections.getSide(connectionSides[index]);
+    }
+
+    /**
+     * @param index of the connection, counted from the start
+     * @return tag of the connection, 0 if there is no edge tag function
+     */
+    public int getConnectionTag(int index) {
+        return connectionTags[index];
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.base.Objects;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of path query results. Each result remembers the network of the start node and the
+ * modification count of that network when it was found, and is only valid while both stay the same. The cache is
+ * synchronized, as queries of a thread-safe block network use it from multiple threads at once.
+ */
+class NetworkPathCache {
+    private final Map<Query, CachedPath> cachedPaths;
+    private long hits;
+    private long misses;
+
+    NetworkPathCache(final int maxSize) {
+        cachedPaths = new LinkedHashMap<Query, CachedPath>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Query, CachedPath> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached result, or null if there is no valid result cached for the query
+     */
+    synchronized CachedPath get(Query query, Network network, int networkModificationCount) {
+        CachedPath cachedPath = cachedPaths.get(query);
+        if (cachedPath != null && (cachedPath.network != network || cachedPath.networkModificationCount != networkModificationCount)) {
+            cachedPaths.remove(query);
+            cachedPath = null;
+        }
+
+        if (cachedPath != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return cachedPath;
+    }
+
+    synchronized void put(Query query, Network network, int networkModificationCount, NetworkPath path) {
+        cachedPaths.put(query, new CachedPath(network, networkModificationCount, path));
+    }
+
+    synchronized void clear() {
+        cachedPaths.clear();
+    }
+
+    synchronized int size() {
+        return cachedPaths.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    static final class Query {
+        private final NetworkNode start;
+        private final NetworkNode end;
+        private final EdgeFilter edgeFilter;
+        private final PathFindingAlgorithm algorithm;
+
+        Query(NetworkNode start, NetworkNode end, EdgeFilter edgeFilter, PathFindingAlgorithm algorithm) {
+            this.start = start;
+            this.end = end;
+            this.edgeFilter = edgeFilter;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Query that = (Query) o;
+            return start.equals(that.start) && end.equals(that.end) && Objects.equal(edgeFilter, that.edgeFilter) && algorithm == that.algorithm;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(start, end, edgeFilter, algorithm);
+        }
+    }
+
+    static final class CachedPath {
+        private final Network network;
+        private final int networkModificationCount;
+        // null if there is no path
+        final NetworkPath path;
+
+        private CachedPath(Network network, int networkModificationCount, NetworkPath path) {
+            this.network = network;
+            this.networkModificationCount = networkModificationCount;
+            this.path = path;
+        }
+    }
+}
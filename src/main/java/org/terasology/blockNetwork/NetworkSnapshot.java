@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copy of the nodes of a single network and the connections between them. The nodes have indexes
+ * from 0, and the connections of each node are a slice of one array of node indexes.
+ */
+final class NetworkSnapshot {
+    private final Network network;
+    // modification count of the network when the copy was made, to find out if it can be reused
+    private final int modificationCount;
+    private final NetworkNode[] nodes;
+    // connections of node i are edges[edgeStarts[i]] to edges[edgeStarts[i + 1] - 1]
+    private final int[] edgeStarts;
+    private final int[] edges;
+    private final byte[] edgeSides;
+    // null if the connections are not tagged
+    private final int[] edgeTags;
+    // index + 1 of the node hashed into each slot, 0 for an empty slot
+    private final int[] slots;
+
+    /**
+     * @param nodeIndexes where the value is the index of each node id of the network, filled in by the copy
+     */
+    NetworkSnapshot(Network network, int modificationCount, Collection<NetworkNode> networkNodes, NetworkGraph graph,
+                    NodeIdIntMap nodeIndexes) {
+        this.network = network;
+        this.modificationCount = modificationCount;
+        nodes = networkNodes.toArray(new NetworkNode[networkNodes.size()]);
+        slots = new int[Math.max(4, Integer.highestOneBit(nodes.length) * 4)];
+        int edgeCount = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            int id = graph.getId(nodes[i]);
+            nodeIndexes.put(id, i);
+            edgeCount += graph.getEdgeCount(id);
+            addSlot(i);
+        }
+
+        edgeStarts = new int[nodes.length + 1];
+        edges = new int[edgeCount];
+        edgeSides = new byte[edgeCount];
+        int[] graphEdges = graph.getEdges();
+        byte[] graphEdgeSides = graph.getEdgeSides();
+        int[] graphEdgeTags = graph.getEdgeTags();
+        edgeTags = graphEdgeTags != null ? new int[edgeCount] : null;
+        int edge = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            edgeStarts[i] = edge;
+            int id = graph.getId(nodes[i]);
+            for (int graphEdge = graph.getEdgeStart(id), end = graphEdge + graph.getEdgeCount(id); graphEdge < end; graphEdge++) {
+                edges[edge] = nodeIndexes.get(graphEdges[graphEdge], -1);
+                edgeSides[edge] = graphEdgeSides[graphEdge];
+                if (edgeTags != null) {
+                    edgeTags[edge] = graphEdgeTags[graphEdge];
+                }
+                edge++;
+            }
+        }
+        edgeStarts[nodes.length] = edge;
+    }
+
+    Network getNetwork() {
+        return network;
+    }
+
+    int getModificationCount() {
+        return modificationCount;
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    NetworkNode getNode(int index) {
+        return nodes[index];
+    }
+
+    List<NetworkNode> getNodes() {
+        return Collections.unmodifiableList(Arrays.asList(nodes));
+    }
+
+    int getEdgeStart(int index) {
+        return edgeStarts[index];
+    }
+
+    int getEdgeEnd(int index) {
+        return edgeStarts[index + 1];
+    }
+
+    int[] getEdges() {
+        return edges;
+    }
+
+    byte getEdgeSide(int edge) {
+        return edgeSides[edge];
+    }
+
+    int getEdgeTag(int edge) {
+        return edgeTags != null ? edgeTags[edge] : 0;
+    }
+
+    /**
+     * @return index of the node, or -1 if it is not in the network
+     */
+    int indexOf(NetworkNode node) {
+        int mask = slots.length - 1;
+        for (int slot = mix(node.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (nodes[slots[slot] - 1].equals(node)) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the connection from one node to the other, or -1 if they are not connected
+     */
+    int findEdge(int fromIndex, int toIndex) {
+        for (int edge = edgeStarts[fromIndex]; edge < edgeStarts[fromIndex + 1]; edge++) {
+            if (edges[edge] == toIndex) {
+                return edge;
+            }
+        }
+        return -1;
+    }
+
+    private void addSlot(int index) {
+        int mask = slots.length - 1;
+        int slot = mix(nodes[index].hashCode()) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private static int mix(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import java.util.Arrays;
+
+/**
+ * An int value for some of the node ids of a NetworkGraph. All the values are cleared at once by starting a new
+ * generation, so a search can reuse the arrays of the previous one instead of allocating them again.
+ */
+class NodeIdIntMap {
+    private int[] generations = new int[16];
+    private int[] values = new int[16];
+    private int generation = 1;
+
+    void clear() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    boolean contains(int id) {
+        return id < generations.length && generations[id] == generation;
+    }
+
+    /**
+     * @return the value for the id, or the default value if there is none
+     */
+    int get(int id, int defaultValue) {
+        return contains(id) ? values[id] : defaultValue;
+    }
+
+    void put(int id, int value) {
+        if (id >= generations.length) {
+            int newLength = Math.max(generations.length * 2, id + 1);
+            generations = Arrays.copyOf(generations, newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+        generations[id] = generation;
+        values[id] = value;
+    }
+}
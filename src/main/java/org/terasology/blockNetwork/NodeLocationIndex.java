@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import java.util.Arrays;
+
+/**
+ * The ids of the spatial nodes of a NetworkGraph indexed by their packed location. The locations are kept in an
+ * open addressing table with the first node at each location, and the other nodes at the same location are linked
+ * from it through their ids, so neither adding nor looking up a node allocates anything.
+ */
+class NodeLocationIndex {
+    // for each node id, its packed location and id + 1 of the next node at the same location, 0 for none
+    private long[] locations = new long[16];
+    private int[] nextIds = new int[16];
+    // packed location hashed into each slot, with id + 1 of the first node at that location, 0 for an empty slot
+    private long[] keys = new long[32];
+    private int[] firstIds = new int[32];
+    private int locationCount;
+    private int size;
+
+    /**
+     * @return number of indexed nodes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return packed location of an indexed node
+     */
+    long getLocation(int id) {
+        return locations[id];
+    }
+
+    /**
+     * @return id of a node at the location, or -1 if there is none
+     */
+    int getFirst(long location) {
+        int mask = keys.length - 1;
+        for (int slot = hash(location) & mask; firstIds[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == location) {
+                return firstIds[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return id of the next node at the same location as the node, or -1 if there is none
+     */
+    int getNext(int id) {
+        return nextIds[id] - 1;
+    }
+
+    void add(long location, int id) {
+        if (id >= locations.length) {
+            int newLength = Math.max(locations.length * 2, id + 1);
+            locations = Arrays.copyOf(locations, newLength);
+            nextIds = Arrays.copyOf(nextIds, newLength);
+        }
+        locations[id] = location;
+        size++;
+
+        int mask = keys.length - 1;
+        int slot = hash(location) & mask;
+        while (firstIds[slot] != 0) {
+            if (keys[slot] == location) {
+                nextIds[id] = firstIds[slot];
+                firstIds[slot] = id + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = location;
+        firstIds[slot] = id + 1;
+        nextIds[id] = 0;
+        locationCount++;
+        if (locationCount * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    void remove(int id) {
+        long location = locations[id];
+        size--;
+        int mask = keys.length - 1;
+        int slot = hash(location) & mask;
+        while (keys[slot] != location || firstIds[slot] == 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (firstIds[slot] != id + 1) {
+            int previous = firstIds[slot] - 1;
+            while (nextIds[previous] != id + 1) {
+                previous = nextIds[previous] - 1;
+            }
+            nextIds[previous] = nextIds[id];
+        } else if (nextIds[id] != 0) {
+            firstIds[slot] = nextIds[id];
+        } else {
+            removeSlot(slot);
+        }
+        nextIds[id] = 0;
+    }
+
+    private void removeSlot(int hole) {
+        locationCount--;
+        int mask = keys.length - 1;
+        // move back the following entries that would not be found past the hole
+        for (int slot = (hole + 1) & mask; firstIds[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hash(keys[slot]) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                firstIds[hole] = firstIds[slot];
+                hole = slot;
+            }
+        }
+        firstIds[hole] = 0;
+    }
+
+    private void rehash(int length) {
+        long[] oldKeys = keys;
+        int[] oldFirstIds = firstIds;
+        keys = new long[length];
+        firstIds = new int[length];
+        int mask = length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldFirstIds[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (firstIds[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                firstIds[slot] = oldFirstIds[i];
+            }
+        }
+    }
+
+    private static int hash(long location) {
+        long mixed = location * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
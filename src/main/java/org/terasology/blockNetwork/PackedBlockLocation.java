@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import org.terasology.math.Side;
+import org.terasology.math.Vector3i;
+
+/**
+ * Block locations packed into a single long, 21 bits for each coordinate, so they can be used as primitive keys
+ * and moved around without allocating. Coordinates outside of -2^20 to 2^20 - 1 wrap around, so locations that
+ * are 2^21 blocks apart are packed the same way. Whether nodes are connected is decided by the nodes themselves,
+ * so such locations do not get connected by mistake. Deltas and distances between packed locations are measured
+ * the shorter way around the wrapping, so they are right for locations less than 2^20 blocks apart on every axis,
+ * including neighbours on both sides of the wrap.
+ */
+public final class PackedBlockLocation {
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final int UNUSED_BITS = Integer.SIZE - BITS;
+
+    private static final int[] SIDE_X = new int[Side.values().length];
+    private static final int[] SIDE_Y = new int[Side.values().length];
+    private static final int[] SIDE_Z = new int[Side.values().length];
+
+    static {
+        for (Side side : Side.values()) {
+            Vector3i direction = side.getVector3i();
+            SIDE_X[side.ordinal()] = direction.x;
+            SIDE_Y[side.ordinal()] = direction.y;
+            SIDE_Z[side.ordinal()] = direction.z;
+        }
+    }
+
+    private PackedBlockLocation() {
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((x & MASK) << (2 * BITS)) | ((y & MASK) << BITS) | (z & MASK);
+    }
+
+    public static long pack(Vector3i location) {
+        return pack(location.x, location.y, location.z);
+    }
+
+    public static int getX(long location) {
+        return (int) (location >>> (2 * BITS)) << UNUSED_BITS >> UNUSED_BITS;
+    }
+
+    public static int getY(long location) {
+        return (int) (location >>> BITS) << UNUSED_BITS >> UNUSED_BITS;
+    }
+
+    public static int getZ(long location) {
+        return (int) location << UNUSED_BITS >> UNUSED_BITS;
+    }
+
+    /**
+     * @return the x coordinate of the second location relative to the first one, going the shorter way around the
+     * wrapping, so locations on both sides of the wrap are next to each other
+     */
+    public static int getDeltaX(long from, long to) {
+        return wrap(getX(to) - getX(from));
+    }
+
+    public static int getDeltaY(long from, long to) {
+        return wrap(getY(to) - getY(from));
+    }
+
+    public static int getDeltaZ(long from, long to) {
+        return wrap(getZ(to) - getZ(from));
+    }
+
+    private static int wrap(int coordinate) {
+        return coordinate << UNUSED_BITS >> UNUSED_BITS;
+    }
+
+    public static long move(long location, int dx, int dy, int dz) {
+        return pack(getX(location) + dx, getY(location) + dy, getZ(location) + dz);
+    }
+
+    public static long move(long location, Side side) {
+        int ordinal = side.ordinal();
+        return move(location, SIDE_X[ordinal], SIDE_Y[ordinal], SIDE_Z[ordinal]);
+    }
+
+    public static int getManhattanDistance(long location1, long location2) {
+        return Math.abs(getDeltaX(location1, location2)) + Math.abs(getDeltaY(location1, location2))
+                + Math.abs(getDeltaZ(location1, location2));
+    }
+
+    public static Vector3i toVector3i(long location) {
+        return new Vector3i(getX(location), getY(location), getZ(location));
+    }
+}
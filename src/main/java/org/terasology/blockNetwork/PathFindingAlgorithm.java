@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+public enum PathFindingAlgorithm {
+    /**
+     * A* whenever it is guaranteed to find the shortest path, breadth-first search otherwise.
+     */
+    AUTOMATIC,
+    /**
+     * Breadth-first search from both ends of the path.
+     */
+    BREADTH_FIRST,
+    /**
+     * A* with the Manhattan distance between locations as the heuristic, both ends of the path have to be spatial
+     * nodes. If there are nodes that are not spatial or connections spanning more than one block, the heuristic
+     * could overestimate the path length, so breadth-first search is used instead.
+     */
+    A_STAR
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+/**
+ * The maps, queues and heap reused by the searches of a block network, so a search must not be started while
+ * another one using the same buffers is running.
+ */
+class SearchBuffers {
+    private final NodeIdIntMap[] maps = {new NodeIdIntMap(), new NodeIdIntMap(), new NodeIdIntMap()};
+    private final IntArrayDeque[] queues = {new IntArrayDeque(), new IntArrayDeque()};
+    private final IndexedIntHeap heap = new IndexedIntHeap();
+
+    NodeIdIntMap clearedMap(int index) {
+        NodeIdIntMap map = maps[index];
+        map.clear();
+        return map;
+    }
+
+    IntArrayDeque clearedQueue(int index) {
+        IntArrayDeque queue = queues[index];
+        queue.clear();
+        return queue;
+    }
+
+    IndexedIntHeap clearedHeap() {
+        heap.clear();
+        return heap;
+    }
+}
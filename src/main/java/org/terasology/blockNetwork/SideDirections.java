@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.Vector3i;
+
+/**
+ * Integer version of Side.inDirection for the direction from one block to another. The sides of the blocks within
+ * one block on every axis, which are the only ones nodes connect to, are looked up in a table. The bit flags of the
+ * sides are looked up too.
+ */
+final class SideDirections {
+    private static final Side[] SIDES = Side.values();
+    // ordinal of the side in the direction of each delta from -1 to 1 on every axis
+    private static final byte[] NEIGHBOUR_SIDES = new byte[27];
+    private static final byte[] SIDE_BITS = new byte[SIDES.length];
+    private static final byte[] REVERSE_SIDE_BITS = new byte[SIDES.length];
+
+    static {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    NEIGHBOUR_SIDES[neighbourIndex(dx, dy, dz)] = (byte) computeInDirection(dx, dy, dz).ordinal();
+                }
+            }
+        }
+        for (Side side : SIDES) {
+            SIDE_BITS[side.ordinal()] = SideBitFlag.getSide(side);
+            REVERSE_SIDE_BITS[side.ordinal()] = SideBitFlag.getSide(side.reverse());
+        }
+    }
+
+    private SideDirections() {
+    }
+
+    /**
+     * @return the side of the block at from facing the block at to, FRONT if they are the same block, the same as
+     * Side.inDirection for the difference of the locations
+     */
+    static Side inDirection(Vector3i from, Vector3i to) {
+        return inDirection((long) to.x - from.x, (long) to.y - from.y, (long) to.z - from.z);
+    }
+
+    static Side inDirection(long dx, long dy, long dz) {
+        if (dx >= -1 && dx <= 1 && dy >= -1 && dy <= 1 && dz >= -1 && dz <= 1) {
+            return SIDES[NEIGHBOUR_SIDES[neighbourIndex((int) dx, (int) dy, (int) dz)]];
+        }
+        return computeInDirection(dx, dy, dz);
+    }
+
+    /**
+     * @return the side with the ordinal, null for NetworkGraph.NO_SIDE
+     */
+    static Side getSide(byte ordinal) {
+        return ordinal != NetworkGraph.NO_SIDE ? SIDES[ordinal] : null;
+    }
+
+    static byte getSideBit(Side side) {
+        return SIDE_BITS[side.ordinal()];
+    }
+
+    static byte getReverseSideBit(Side side) {
+        return REVERSE_SIDE_BITS[side.ordinal()];
+    }
+
+    private static int neighbourIndex(int dx, int dy, int dz) {
+        return (dx + 1) * 9 + (dy + 1) * 3 + dz + 1;
+    }
+
+    private static Side computeInDirection(long dx, long dy, long dz) {
+        if (Math.abs(dx) > Math.abs(dy)) {
+            if (Math.abs(dx) > Math.abs(dz)) {
+                return (dx > 0) ? Side.RIGHT : Side.LEFT;
+            }
+        } else if (Math.abs(dy) > Math.abs(dz)) {
+            return (dy > 0) ? Side.TOP : Side.BOTTOM;
+        }
+        return (dz > 0) ? Side.BACK : Side.FRONT;
+    }
+}
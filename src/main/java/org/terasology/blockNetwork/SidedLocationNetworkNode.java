@@ -1,10 +1,11 @@
 package org.terasology.blockNetwork;
 
-import com.google.common.base.Predicate;
 import org.terasology.math.Side;
 import org.terasology.math.SideBitFlag;
 import org.terasology.math.Vector3i;
 
+import java.util.Arrays;
+
 /**
  * @author Marcin Sciesinski <marcins78@gmail.com>
  */
@@ -57,52 +58,92 @@ public class SidedLocationNetworkNode extends LocationNetworkNode {
     }
 
     private static boolean areConnected(Vector3i lhsLocation, byte lhsSide, Vector3i rhsLocation, byte rhsSide) {
-        Vector3i sideVector = rhsLocation.clone();
-        sideVector.sub(lhsLocation);
-        Side side = Side.inDirection(sideVector.toVector3f());
-        byte sideBit = SideBitFlag.getSide(side);
-
-        return (sideBit & lhsSide) == sideBit && (SideBitFlag.getReverse(sideBit) & rhsSide) == SideBitFlag.getReverse(sideBit);
-
+        Side side = SideDirections.inDirection(lhsLocation, rhsLocation);
+        return (SideDirections.getSideBit(side) & lhsSide) != 0 && (SideDirections.getReverseSideBit(side) & rhsSide) != 0;
     }
 
     public Side connectionSide(SidedLocationNetworkNode node) {
-        Vector3i sideVector = node.location.clone();
-        sideVector.sub(location);
-        Side side = Side.inDirection(sideVector.toVector3f());
-        return side;
+        return SideDirections.inDirection(location, node.location);
     }
 
-    public static Predicate<TwoNetworkNodes> createSideConnectivityFilter(Side targetSide, Vector3i targetLocation) {
+    /**
+     * Only the neighbours on the connection sides can be connected, and the nodes in the same block only if the
+     * side in that direction, FRONT, is one of the connection sides.
+     */
+    @Override
+    public long[] getConnectableLocations() {
+        long packedLocation = getPackedLocation();
+        Side[] sides = Side.values();
+        long[] result = new long[sides.length + 1];
+        int count = 0;
+        if ((SideDirections.getSideBit(SideDirections.inDirection(0, 0, 0)) & connectionSides) != 0) {
+            result[count++] = packedLocation;
+        }
+        for (Side side : sides) {
+            if ((SideDirections.getSideBit(side) & connectionSides) != 0) {
+                result[count++] = PackedBlockLocation.move(packedLocation, side);
+            }
+        }
+        return count < result.length ? Arrays.copyOf(result, count) : result;
+    }
+
+    public static EdgeFilter createSideConnectivityFilter(Side targetSide, Vector3i targetLocation) {
         return new SideConnectivityFilter(targetSide, targetLocation);
     }
 
-    private static class SideConnectivityFilter implements Predicate<TwoNetworkNodes> {
+    private static class SideConnectivityFilter extends EdgeFilter {
         final Side targetSide;
         final Vector3i targetLocation;
+        final byte targetSideBitFlag;
         public SideConnectivityFilter(Side targetSide, Vector3i targetLocation) {
             this.targetSide = targetSide;
             this.targetLocation = targetLocation;
+            this.targetSideBitFlag = SideDirections.getSideBit(targetSide);
         }
 
         @Override
-        public boolean apply(TwoNetworkNodes input) {
-            if(!( input.node1 instanceof SidedLocationNetworkNode && input.node2 instanceof SidedLocationNetworkNode)) {
+        public boolean test(NetworkNode from, NetworkNode to) {
+            if(!( from instanceof SidedLocationNetworkNode && to instanceof SidedLocationNetworkNode)) {
                 return false;
             }
+            return test(from, to, ((SidedLocationNetworkNode) from).connectionSide((SidedLocationNetworkNode) to), 0);
+        }
 
-            SidedLocationNetworkNode source = (SidedLocationNetworkNode) input.node1;
-            SidedLocationNetworkNode target = (SidedLocationNetworkNode) input.node2;
+        /**
+         * Uses the side the block network found when it connected the nodes.
+         */
+        @Override
+        public boolean test(NetworkNode from, NetworkNode to, Side side, int tag) {
+            if(!( from instanceof SidedLocationNetworkNode && to instanceof SidedLocationNetworkNode)) {
+                return false;
+            }
+
+            SidedLocationNetworkNode source = (SidedLocationNetworkNode) from;
+            SidedLocationNetworkNode target = (SidedLocationNetworkNode) to;
 
             if( target.location.equals(targetLocation)) {
-                byte targetSideBitFlag = SideBitFlag.getSide(targetSide);
                 if( ( targetSideBitFlag & target.connectionSides) == targetSideBitFlag ) {
-                    return areConnected( source.location, source.connectionSides, target.location, targetSideBitFlag);
+                    return (SideDirections.getSideBit(side) & source.connectionSides) != 0
+                            && (SideDirections.getReverseSideBit(side) & targetSideBitFlag) != 0;
                 }else { return false; }
 
             }else {
                 return true;
             }
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SideConnectivityFilter that = (SideConnectivityFilter) o;
+            return targetSide == that.targetSide && targetLocation.equals(that.targetLocation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * targetSide.hashCode() + targetLocation.hashCode();
+        }
     }
 }
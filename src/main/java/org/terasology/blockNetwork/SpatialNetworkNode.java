@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+/**
+ * A network node that occupies a block location and can only ever be connected to other spatial nodes located
+ * at one of its connectable locations. BlockNetwork uses this to look up the candidates for connection
+ * instead of testing the node against every other node in the network.
+ */
+public interface SpatialNetworkNode extends NetworkNode {
+    /**
+     * @return location of the node, packed with PackedBlockLocation
+     */
+    long getPackedLocation();
+
+    /**
+     * @return packed locations of all the nodes this node could possibly be connected to, including its own
+     * location
+     */
+    long[] getConnectableLocations();
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2014 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.blockNetwork;
+
+import com.google.common.collect.Lists;
+import org.terasology.math.Side;
+import org.terasology.math.Vector3i;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rough timings of BlockNetwork operations on large networks, meant to be run as a main class.
+ * This is not a unit test, the results depend on the machine and on JIT warm-up.
+ */
+public final class BlockNetworkBenchmark {
+    private static final byte ALL_DIRECTIONS = 63;
+    private static final int[] SIZES = {1000, 10000, 100000};
+    private static final int[] MEMORY_SIZES = {100000, 1000000};
+    private static final int REPEATS = 20;
+    private static final int[] READER_THREADS = {1, 2, 4, 8};
+    private static final long CONCURRENT_RUN_MILLIS = 1000;
+
+    private BlockNetworkBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        runTraversalBenchmarks(1000, false);
+        for (int size : MEMORY_SIZES) {
+            runTraversalBenchmarks(size, true);
+        }
+
+        // first round only warms up the JIT
+        runRemovalBenchmarks(1000, false);
+        for (int size : SIZES) {
+            runRemovalBenchmarks(size, true);
+        }
+
+        runPathBenchmarks(1000, false);
+        for (int size : SIZES) {
+            runPathBenchmarks(size, true);
+        }
+
+        runWeightedBenchmarks(1000, false);
+        for (int size : SIZES) {
+            runWeightedBenchmarks(size, true);
+        }
+
+        runBatchBenchmarks(1000, false);
+        for (int size : SIZES) {
+            runBatchBenchmarks(size, true);
+        }
+
+        runSnapshotBenchmarks(1000, false);
+        for (int size : MEMORY_SIZES) {
+            runSnapshotBenchmarks(size, true);
+        }
+
+        runConcurrentBenchmarks(1, false);
+        for (int readerThreads : READER_THREADS) {
+            runConcurrentBenchmarks(readerThreads, true);
+        }
+    }
+
+    /**
+     * Compares cutting a grid in half one node at a time, which splits the grid at the last node, with cutting it
+     * in a single batch, and with lazy splitting. Every second node of the cut is put back right away, so the grid
+     * stays connected.
+     */
+    private static void runBatchBenchmarks(int size, boolean report) {
+        int width = (int) Math.sqrt(size);
+        long singleChanges = timeCut(createGrid(width), width, false);
+        long batch = timeCut(createGrid(width), width, true);
+        BlockNetwork lazyGrid = createGrid(width);
+        lazyGrid.setLazySplitting(true);
+        long lazySplitting = timeCut(lazyGrid, width, false);
+
+        if (report) {
+            System.out.println("Batch, " + size + " nodes: cut and partly restore grid one change at a time " + formatNanos(singleChanges)
+                    + ", in a batch " + formatNanos(batch) + ", with lazy splitting " + formatNanos(lazySplitting));
+        }
+    }
+
+    private static long timeCut(BlockNetwork grid, int width, boolean batch) {
+        long start = System.nanoTime();
+        if (batch) {
+            grid.beginBatch();
+        }
+        for (int z = 0; z < width; z++) {
+            grid.removeNetworkingBlock(toNode(width / 2, 0, z));
+        }
+        for (int z = 0; z < width; z += 2) {
+            grid.addNetworkingBlock(toNode(width / 2, 0, z));
+        }
+        if (batch) {
+            grid.commit();
+        }
+        grid.flush();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Reports the time to take the first snapshot of many separate cables, and the time to take the next one
+     * after a single cable has been modified.
+     */
+    private static void runSnapshotBenchmarks(int size, boolean report) {
+        int cableLength = 100;
+        BlockNetwork network = new BlockNetwork();
+        for (int cable = 0; cable < size / cableLength; cable++) {
+            for (int i = 0; i < cableLength; i++) {
+                network.addNetworkingBlock(toNode(cable * 2, 0, i));
+            }
+        }
+
+        long start = System.nanoTime();
+        network.snapshot();
+        long firstSnapshot = System.nanoTime() - start;
+
+        NetworkNode node = toNode(0, 0, cableLength / 2);
+        long total = 0;
+        for (int i = 0; i < REPEATS; i++) {
+            network.removeNetworkingBlock(node);
+            network.addNetworkingBlock(node);
+            start = System.nanoTime();
+            network.snapshot();
+            total += System.nanoTime() - start;
+        }
+        long nextSnapshot = total / REPEATS;
+
+        if (report) {
+            System.out.println("Snapshot, " + size + " nodes in " + size / cableLength + " cables: first " + formatNanos(firstSnapshot)
+                    + ", after modifying one cable " + formatNanos(nextSnapshot));
+        }
+    }
+
+    /**
+     * Reports the number of queries per second done by the reader threads together on a thread-safe grid, while
+     * another thread keeps removing and adding back nodes of the grid.
+     */
+    private static void runConcurrentBenchmarks(int readerThreads, boolean report) {
+        final int width = 100;
+        final BlockNetwork grid = new BlockNetwork(true);
+        for (int x = 0; x < width; x++) {
+            for (int z = 0; z < width; z++) {
+                grid.addNetworkingBlock(toNode(x, 0, z));
+            }
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong queries = new AtomicLong();
+        List<Thread> readers = Lists.newArrayList();
+        for (int i = 0; i < readerThreads; i++) {
+            final Random random = new Random(i);
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    while (running.get()) {
+                        NetworkNode from = toNode(random.nextInt(width), 0, random.nextInt(width));
+                        NetworkNode to = toNode(random.nextInt(width), 0, random.nextInt(width));
+                        grid.getNetwork(from);
+                        grid.isInDistance(10, from, to);
+                        grid.getPath(from, to);
+                        count += 3;
+                    }
+                    queries.addAndGet(count);
+                }
+            };
+            readers.add(reader);
+        }
+
+        Random random = new Random();
+        long modifications = 0;
+        long start = System.nanoTime();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        while (System.nanoTime() - start < CONCURRENT_RUN_MILLIS * 1000000) {
+            NetworkNode node = toNode(random.nextInt(width), 0, random.nextInt(width));
+            grid.removeNetworkingBlock(node);
+            grid.addNetworkingBlock(node);
+            modifications += 2;
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (report) {
+            System.out.println("Concurrent, " + readerThreads + " reader threads on " + width * width + " node grid: "
+                    + String.format("%.0f queries/s, %.0f modifications/s", queries.get() * 1.0e9 / elapsed, modifications * 1.0e9 / elapsed));
+        }
+    }
+
+    /**
+     * Reports the heap used by the network itself, not counting the node objects, and the number of nodes visited
+     * per second when finding the distances to all the nodes of a grid.
+     */
+    private static void runTraversalBenchmarks(int size, boolean report) {
+        int width = (int) Math.sqrt(size);
+        List<NetworkNode> nodes = Lists.newArrayListWithCapacity(width * width);
+        for (int x = 0; x < width; x++) {
+            for (int z = 0; z < width; z++) {
+                nodes.add(toNode(x, 0, z));
+            }
+        }
+        long heapBefore = getUsedHeap();
+        BlockNetwork grid = new BlockNetwork();
+        for (NetworkNode node : nodes) {
+            grid.addNetworkingBlock(node);
+        }
+        long heapAfter = getUsedHeap();
+
+        NetworkNode gridCorner = nodes.get(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            grid.getDistances(gridCorner);
+        }
+        long breadthFirstDistances = (System.nanoTime() - start) / REPEATS;
+
+        if (report) {
+            System.out.println("Traversal, " + nodes.size() + " nodes: " + (heapAfter - heapBefore) / nodes.size() + " bytes per node"
+                    + ", all distances from corner BFS " + formatNanos(breadthFirstDistances)
+                    + String.format(" (%.1f million nodes/s)", nodes.size() * 1000.0 / breadthFirstDistances));
+        }
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void runWeightedBenchmarks(int size, boolean report) {
+        int width = (int) Math.sqrt(size);
+        BlockNetwork grid = createGrid(width);
+        NetworkNode gridCorner = toNode(0, 0, 0);
+        NetworkNode gridCenter = toNode(width / 2, 0, width / 2);
+        EdgeCostFunction unitCost = new EdgeCostFunction() {
+            @Override
+            public int getCost(NetworkNode from, NetworkNode to) {
+                return 1;
+            }
+        };
+
+        long breadthFirstPath = timePath(grid, gridCorner, gridCenter, PathFindingAlgorithm.BREADTH_FIRST);
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            grid.getPath(gridCorner, gridCenter, null, unitCost);
+        }
+        long dijkstraPath = (System.nanoTime() - start) / REPEATS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            grid.getDistances(gridCorner);
+        }
+        long breadthFirstDistances = (System.nanoTime() - start) / REPEATS;
+        start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            grid.getDistances(gridCorner, Integer.MAX_VALUE, null, unitCost);
+        }
+        long dijkstraDistances = (System.nanoTime() - start) / REPEATS;
+
+        if (report) {
+            System.out.println("Equal weights, " + size + " nodes: grid corner to center BFS " + formatNanos(breadthFirstPath)
+                    + ", Dijkstra " + formatNanos(dijkstraPath)
+                    + "; all distances from corner BFS " + formatNanos(breadthFirstDistances)
+                    + ", Dijkstra " + formatNanos(dijkstraDistances));
+        }
+    }
+
+    private static void runPathBenchmarks(int size, boolean report) {
+        int width = (int) Math.sqrt(size);
+        BlockNetwork windingCable = createWindingCable(width);
+        NetworkNode cableStart = toNode(0, 0, 0);
+        NetworkNode cableEnd = toNode(width % 2 == 0 ? 0 : width - 1, 0, (width - 1) * 2);
+        long cableBreadthFirst = timePath(windingCable, cableStart, cableEnd, PathFindingAlgorithm.BREADTH_FIRST);
+        long cableAStar = timePath(windingCable, cableStart, cableEnd, PathFindingAlgorithm.A_STAR);
+
+        BlockNetwork grid = createGrid(width);
+        NetworkNode gridCorner = toNode(0, 0, 0);
+        NetworkNode gridCenter = toNode(width / 2, 0, width / 2);
+        long gridBreadthFirst = timePath(grid, gridCorner, gridCenter, PathFindingAlgorithm.BREADTH_FIRST);
+        long gridAStar = timePath(grid, gridCorner, gridCenter, PathFindingAlgorithm.A_STAR);
+
+        NetworkNode farGridCorner = toNode(width - 1, 0, width - 1);
+        long gridDistance = timePath(grid, gridCorner, farGridCorner, PathFindingAlgorithm.BREADTH_FIRST);
+        long gridInDistance = timeInDistance(grid, gridCorner, farGridCorner, 16);
+
+        if (report) {
+            System.out.println("Distance check, " + size + " nodes: grid corner to corner, unbounded BFS " + formatNanos(gridDistance)
+                    + ", isInDistance of 16 " + formatNanos(gridInDistance));
+            System.out.println("Path, " + size + " nodes: winding cable end to end BFS " + formatNanos(cableBreadthFirst)
+                    + ", A* " + formatNanos(cableAStar)
+                    + "; grid corner to center BFS " + formatNanos(gridBreadthFirst)
+                    + ", A* " + formatNanos(gridAStar));
+        }
+    }
+
+    /**
+     * @return average time in nanoseconds it takes to find the path
+     */
+    private static long timePath(BlockNetwork network, NetworkNode from, NetworkNode to, PathFindingAlgorithm algorithm) {
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            network.getPath(from, to, null, algorithm);
+        }
+        return (System.nanoTime() - start) / REPEATS;
+    }
+
+    private static void runRemovalBenchmarks(int size, boolean report) {
+        BlockNetwork cable = createCable(size);
+        long leafRemoval = timeRemoval(cable, toNode(0, 0, 0));
+        long cableSplit = timeRemoval(cable, toNode(0, 0, size / 2));
+        // the middle of the cable keeps its connections, only the unused sides change
+        long cableUpdate = timeUpdate(cable, toNode(0, 0, size / 2), new SidedLocationNetworkNode(new Vector3i(0, 0, size / 2), Side.FRONT, Side.BACK));
+
+        BlockNetwork loop = createLoop(size / 4);
+        long loopRemoval = timeRemoval(loop, toNode(0, 0, size / 8));
+
+        // removing a node from each of the loops only opens the loop, which needs no split search once the critical
+        // nodes are known
+        int loopCount = size / 40;
+        BlockNetwork loopChain = createLoopChain(loopCount, 10);
+        long start = System.nanoTime();
+        loopChain.isCriticalNode(toNode(5, 0, 0));
+        long criticalNodeSearch = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < loopCount; i++) {
+            loopChain.removeNetworkingBlock(toNode(i * 12 + 5, 0, 0));
+        }
+        long loopChainRemoval = (System.nanoTime() - start) / loopCount;
+
+        if (report) {
+            System.out.println("Removal, " + size + " nodes: cable leaf " + formatNanos(leafRemoval)
+                    + ", cable split in half " + formatNanos(cableSplit)
+                    + ", loop without split " + formatNanos(loopRemoval)
+                    + ", critical nodes of a chain of loops " + formatNanos(criticalNodeSearch)
+                    + ", then loop of the chain " + formatNanos(loopChainRemoval)
+                    + ", cable middle updated " + formatNanos(cableUpdate));
+        }
+    }
+
+    /**
+     * @return average time in nanoseconds it takes to replace the node with the other one and back
+     */
+    private static long timeUpdate(BlockNetwork network, NetworkNode node, NetworkNode otherNode) {
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            network.updateNetworkingBlock(node, otherNode);
+            network.updateNetworkingBlock(otherNode, node);
+        }
+        return (System.nanoTime() - start) / (REPEATS * 2);
+    }
+
+    /**
+     * @return average time in nanoseconds it takes to remove the node, the node is added back after each removal
+     */
+    private static long timeRemoval(BlockNetwork network, NetworkNode node) {
+        long total = 0;
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            network.removeNetworkingBlock(node);
+            total += System.nanoTime() - start;
+            network.addNetworkingBlock(node);
+        }
+        return total / REPEATS;
+    }
+
+    private static long timeInDistance(BlockNetwork network, NetworkNode from, NetworkNode to, int distance) {
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            network.isInDistance(distance, from, to);
+        }
+        return (System.nanoTime() - start) / REPEATS;
+    }
+
+    static BlockNetwork createCable(int length) {
+        BlockNetwork network = new BlockNetwork();
+        for (int i = 0; i < length; i++) {
+            network.addNetworkingBlock(toNode(0, 0, i));
+        }
+        return network;
+    }
+
+    static BlockNetwork createLoop(int sideLength) {
+        BlockNetwork network = new BlockNetwork();
+        for (int i = 0; i < sideLength; i++) {
+            network.addNetworkingBlock(toNode(i, 0, 0));
+            network.addNetworkingBlock(toNode(sideLength, 0, i));
+            network.addNetworkingBlock(toNode(sideLength - i, 0, sideLength));
+            network.addNetworkingBlock(toNode(0, 0, sideLength - i));
+        }
+        return network;
+    }
+
+    /**
+     * Loops next to each other, each connected to the next one by a single node.
+     */
+    static BlockNetwork createLoopChain(int loopCount, int sideLength) {
+        BlockNetwork network = new BlockNetwork();
+        for (int loop = 0; loop < loopCount; loop++) {
+            int offset = loop * (sideLength + 2);
+            for (int i = 0; i < sideLength; i++) {
+                network.addNetworkingBlock(toNode(offset + i, 0, 0));
+                network.addNetworkingBlock(toNode(offset + sideLength, 0, i));
+                network.addNetworkingBlock(toNode(offset + sideLength - i, 0, sideLength));
+                network.addNetworkingBlock(toNode(offset, 0, sideLength - i));
+            }
+            if (loop < loopCount - 1) {
+                network.addNetworkingBlock(toNode(offset + sideLength + 1, 0, 0));
+            }
+        }
+        return network;
+    }
+
+    /**
+     * A cable going back and forth in rows, every second row only connects the ends of the rows around it.
+     */
+    static BlockNetwork createWindingCable(int width) {
+        BlockNetwork network = new BlockNetwork();
+        for (int row = 0; row < width; row++) {
+            for (int i = 0; i < width; i++) {
+                network.addNetworkingBlock(toNode(i, 0, row * 2));
+            }
+            if (row < width - 1) {
+                network.addNetworkingBlock(toNode(row % 2 == 0 ? width - 1 : 0, 0, row * 2 + 1));
+            }
+        }
+        return network;
+    }
+
+    static BlockNetwork createGrid(int width) {
+        BlockNetwork network = new BlockNetwork();
+        for (int x = 0; x < width; x++) {
+            for (int z = 0; z < width; z++) {
+                network.addNetworkingBlock(toNode(x, 0, z));
+            }
+        }
+        return network;
+    }
+
+    static SidedLocationNetworkNode toNode(int x, int y, int z) {
+        return new SidedLocationNetworkNode(new Vector3i(x, y, z), ALL_DIRECTIONS);
+    }
+
+    static String formatNanos(long nanos) {
+        return String.format("%.1f us", nanos / 1000.0);
+    }
+}
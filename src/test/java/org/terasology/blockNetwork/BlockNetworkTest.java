@@ -1,6 +1,8 @@
 package org.terasology.blockNetwork;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import org.junit.Before;
@@ -8,7 +10,15 @@ import org.junit.Test;
 import org.terasology.math.Side;
 import org.terasology.math.Vector3i;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -68,6 +78,46 @@ public class BlockNetworkTest {
         assertEquals(2, blockNetwork.getNetworks().size());
     }
 
+    @Test
+    public void removingNetworkingNodeSplitsNetworkInThree() {
+        for (int i = 1; i <= 5; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, -i), allDirections));
+        }
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        assertEquals(1, blockNetwork.getNetworks().size());
+        listener.reset();
+
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        assertEquals(3, blockNetwork.getNetworks().size());
+        assertEquals(2, listener.networksAdded);
+        assertTrue(blockNetwork.areInSameNetwork(toNode(new Vector3i(0, 0, 1), allDirections), toNode(new Vector3i(0, 0, 5), allDirections)));
+        assertTrue(blockNetwork.areInSameNetwork(toNode(new Vector3i(0, 0, -1), allDirections), toNode(new Vector3i(0, 0, -5), allDirections)));
+        assertFalse(blockNetwork.areInSameNetwork(toNode(new Vector3i(0, 0, 1), allDirections), toNode(new Vector3i(0, 0, -1), allDirections)));
+        assertFalse(blockNetwork.areInSameNetwork(toNode(new Vector3i(1, 0, 0), allDirections), toNode(new Vector3i(0, 0, -1), allDirections)));
+    }
+
+    @Test
+    public void removingNetworkingNodeFromLoopKeepsExistingNetwork() {
+        for (int i = 0; i < 4; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(i, 0, 0), allDirections));
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(i, 0, 3), allDirections));
+        }
+        for (int i = 1; i < 3; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(3, 0, i), allDirections));
+        }
+        assertEquals(1, blockNetwork.getNetworks().size());
+        listener.reset();
+
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        assertEquals(1, blockNetwork.getNetworks().size());
+        assertEquals(0, listener.networksAdded);
+        assertEquals(1, listener.networkingNodesRemoved);
+        assertEquals(10, blockNetwork.getDistance(toNode(new Vector3i(1, 0, 0), allDirections), toNode(new Vector3i(0, 0, 1), allDirections)));
+    }
+
     @Test
     public void removingNetworkingNodeKeepsExistingNetwork() {
         blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 1), allDirections));
@@ -95,6 +145,101 @@ public class BlockNetworkTest {
         assertEquals(1, listener.networksRemoved);
     }
 
+    @Test
+    public void addingNetworkingBlocksAtOnceNotifiesOnlyAboutFinalNetworks() {
+        List<NetworkNode> cable = Lists.newArrayList();
+        for (int i = 10; i >= 0; i--) {
+            cable.add(toNode(new Vector3i(0, 0, i * 2), allDirections));
+        }
+        for (int i = 0; i < 10; i++) {
+            cable.add(toNode(new Vector3i(0, 0, i * 2 + 1), allDirections));
+        }
+        blockNetwork.addNetworkingBlocks(cable);
+
+        assertEquals(1, blockNetwork.getNetworks().size());
+        assertEquals(1, listener.networksAdded);
+        assertEquals(0, listener.networksRemoved);
+        assertEquals(21, listener.networkingNodesAdded);
+        assertEquals(0, listener.networkingNodesRemoved);
+        assertEquals(20, blockNetwork.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 20), allDirections)));
+    }
+
+    @Test
+    public void addingNetworkingBlocksAtOnceJoinsExistingNetworks() {
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 3), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(5, 0, 5), allDirections));
+        listener.reset();
+
+        blockNetwork.addNetworkingBlocks(Arrays.<NetworkNode>asList(
+                toNode(new Vector3i(0, 0, 1), allDirections),
+                toNode(new Vector3i(7, 0, 7), allDirections),
+                toNode(new Vector3i(0, 0, 2), allDirections),
+                toNode(new Vector3i(0, 0, 0), allDirections)));
+
+        assertEquals(3, blockNetwork.getNetworks().size());
+        assertEquals(1, listener.networksAdded);
+        assertEquals(1, listener.networksRemoved);
+        assertTrue(blockNetwork.areInSameNetwork(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 3), allDirections)));
+        assertFalse(blockNetwork.areInSameNetwork(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(5, 0, 5), allDirections)));
+        assertEquals(6, blockNetwork.getNetworkSize());
+    }
+
+    @Test
+    public void removingNetworkingBlocksAtOnceNotifiesOnlyAboutFinalNetworks() {
+        for (int i = 0; i <= 10; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        }
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(5, 0, 5), allDirections));
+        listener.reset();
+
+        blockNetwork.removeNetworkingBlocks(Arrays.<NetworkNode>asList(
+                toNode(new Vector3i(0, 0, 3), allDirections),
+                toNode(new Vector3i(0, 0, 5), allDirections),
+                toNode(new Vector3i(0, 0, 4), allDirections),
+                toNode(new Vector3i(0, 0, 6), allDirections),
+                toNode(new Vector3i(5, 0, 5), allDirections)));
+
+        assertEquals(2, blockNetwork.getNetworks().size());
+        assertEquals(1, listener.networksAdded);
+        assertEquals(1, listener.networksRemoved);
+        // the five removed nodes, and the three nodes moved to the new network
+        assertEquals(8, listener.networkingNodesRemoved);
+        assertEquals(3, listener.networkingNodesAdded);
+        assertFalse(blockNetwork.areInSameNetwork(toNode(new Vector3i(0, 0, 2), allDirections), toNode(new Vector3i(0, 0, 7), allDirections)));
+        assertEquals(2, blockNetwork.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 2), allDirections)));
+        assertEquals(3, blockNetwork.getDistance(toNode(new Vector3i(0, 0, 7), allDirections), toNode(new Vector3i(0, 0, 10), allDirections)));
+    }
+
+    @Test
+    public void mergingNetworksMovesNodesOfTheSmallerOne() {
+        for (int i = 2; i < 10; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        }
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        Network bigNetwork = blockNetwork.getNetwork(toNode(new Vector3i(0, 0, 2), allDirections));
+        Network smallNetwork = blockNetwork.getNetwork(toNode(new Vector3i(0, 0, 0), allDirections));
+        MergeListener mergeListener = new MergeListener();
+        blockNetwork.addTopologyListener(mergeListener);
+        listener.reset();
+
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 1), allDirections));
+
+        assertEquals(1, blockNetwork.getNetworks().size());
+        assertTrue(blockNetwork.isNetworkActive(bigNetwork));
+        assertEquals(bigNetwork, blockNetwork.getNetwork(toNode(new Vector3i(0, 0, 0), allDirections)));
+        assertEquals(1, listener.networksRemoved);
+        assertEquals(1, listener.networkingNodesRemoved);
+        assertEquals(2, listener.networkingNodesAdded);
+
+        assertEquals(1, mergeListener.merges);
+        assertEquals(bigNetwork, mergeListener.lastTarget);
+        assertEquals(smallNetwork, mergeListener.lastSource);
+        assertEquals(1, mergeListener.lastMovedNodes.size());
+        assertEquals(0, mergeListener.networksRemoved);
+        assertEquals(1, mergeListener.networkingNodesAdded);
+    }
+
     @Test
     public void addTwoOverlappingCrossingNetworkingNodes() {
         Vector3i location = new Vector3i(0, 0, 0);
@@ -133,6 +278,619 @@ public class BlockNetworkTest {
         assertEquals(4, blockNetwork.getDistance(leftRight, frontBack));
     }
 
+    @Test
+    public void networkMembershipFollowsMergesAndSplits() {
+        SidedLocationNetworkNode first = toNode(new Vector3i(0, 0, -1), allDirections);
+        SidedLocationNetworkNode middle = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode last = toNode(new Vector3i(0, 0, 1), allDirections);
+        blockNetwork.addNetworkingBlock(first);
+        blockNetwork.addNetworkingBlock(last);
+        assertFalse(blockNetwork.areInSameNetwork(first, last));
+
+        blockNetwork.addNetworkingBlock(middle);
+        assertTrue(blockNetwork.areInSameNetwork(first, last));
+        Network network = blockNetwork.getNetworks().iterator().next();
+        assertEquals(network, blockNetwork.getNetwork(first));
+        assertEquals(network, blockNetwork.getNetwork(last));
+
+        blockNetwork.removeNetworkingBlock(middle);
+        assertFalse(blockNetwork.areInSameNetwork(first, last));
+        assertFalse(blockNetwork.areInSameNetwork(first, middle));
+        assertEquals(null, blockNetwork.getNetwork(middle));
+        assertTrue(blockNetwork.hasNetworkingNode(blockNetwork.getNetwork(first), first));
+        assertTrue(blockNetwork.hasNetworkingNode(blockNetwork.getNetwork(last), last));
+    }
+
+    @Test
+    public void nodesWithoutLocationConnectToEachOther() {
+        blockNetwork.addNetworkingBlock(new GroupNetworkNode("a", 1));
+        blockNetwork.addNetworkingBlock(new GroupNetworkNode("b", 2));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        assertEquals(3, blockNetwork.getNetworks().size());
+
+        blockNetwork.addNetworkingBlock(new GroupNetworkNode("c", 1));
+        assertEquals(3, blockNetwork.getNetworks().size());
+        assertEquals(1, blockNetwork.getDistance(new GroupNetworkNode("a", 1), new GroupNetworkNode("c", 1)));
+
+        blockNetwork.removeNetworkingBlock(new GroupNetworkNode("a", 1));
+        assertEquals(3, blockNetwork.getNetworks().size());
+    }
+
+    @Test
+    public void spatialNodesConnectOnlyToNeighbours() {
+        for (int i = 0; i < 5; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(i * 2, 0, 0), allDirections));
+        }
+        assertEquals(5, blockNetwork.getNetworks().size());
+
+        for (int i = 0; i < 4; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(i * 2 + 1, 0, 0), allDirections));
+        }
+        assertEquals(1, blockNetwork.getNetworks().size());
+        assertEquals(8, blockNetwork.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(8, 0, 0), allDirections)));
+    }
+
+    @Test
+    public void connectionsStayCorrectAfterManyChanges() {
+        Random random = new Random(4321);
+        Set<Vector3i> locations = Sets.newHashSet();
+        for (int i = 0; i < 5000; i++) {
+            Vector3i location = new Vector3i(random.nextInt(6), random.nextInt(6), random.nextInt(6));
+            if (locations.add(location)) {
+                blockNetwork.addNetworkingBlock(toNode(location, allDirections));
+            } else {
+                locations.remove(location);
+                blockNetwork.removeNetworkingBlock(toNode(location, allDirections));
+            }
+        }
+
+        assertEquals(locations.size(), blockNetwork.getNetworkSize());
+        for (Vector3i location : locations) {
+            Set<NetworkNode> expectedNodes = Sets.newHashSet();
+            for (Side side : Side.values()) {
+                Vector3i neighbour = side.getAdjacentPos(location);
+                if (locations.contains(neighbour)) {
+                    expectedNodes.add(toNode(neighbour, allDirections));
+                }
+            }
+            SidedLocationNetworkNode node = toNode(location, allDirections);
+            assertEquals(expectedNodes, Sets.newHashSet(blockNetwork.getAdjacentNodes(node)));
+
+            Network network = blockNetwork.getNetwork(node);
+            assertEquals(Sets.newHashSet(blockNetwork.getNetworkNodes(network)),
+                    Sets.newHashSet(blockNetwork.getDistances(node).getReachableNodes()));
+        }
+    }
+
+    @Test
+    public void nodesWithTheSamePackedLocationDoNotConnect() {
+        Vector3i location = new Vector3i(-5, 300, (1 << 20) - 1);
+        long packedLocation = PackedBlockLocation.pack(location);
+        assertEquals(location, PackedBlockLocation.toVector3i(PackedBlockLocation.move(PackedBlockLocation.move(packedLocation, Side.LEFT), Side.RIGHT)));
+        assertEquals(new Vector3i(-5, 300, -(1 << 20)), PackedBlockLocation.toVector3i(PackedBlockLocation.move(packedLocation, Side.BACK)));
+
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1 << 21, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1, 0, 1 << 21), allDirections));
+        assertEquals(3, blockNetwork.getNetworks().size());
+
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(1 << 21, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1, 0, 0), allDirections));
+        assertEquals(2, blockNetwork.getNetworks().size());
+        assertEquals(1, blockNetwork.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(1, 0, 0), allDirections)));
+    }
+
+    @Test
+    public void snapshotsDoNotChangeWithTheNetwork() {
+        for (int i = 0; i < 5; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(10, 0, i), allDirections));
+        }
+        NetworkNode cableStart = toNode(new Vector3i(0, 0, 0), allDirections);
+        NetworkNode cableEnd = toNode(new Vector3i(0, 0, 4), allDirections);
+        NetworkNode otherCable = toNode(new Vector3i(10, 0, 0), allDirections);
+        BlockNetworkSnapshot snapshot = blockNetwork.snapshot();
+
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 2), allDirections));
+        BlockNetworkSnapshot nextSnapshot = blockNetwork.snapshot();
+
+        assertEquals(2, snapshot.getNetworks().size());
+        assertEquals(10, snapshot.getNetworkSize());
+        assertEquals(4, snapshot.getDistance(cableStart, cableEnd));
+        assertEquals(5, snapshot.getNetworkNodes(snapshot.getNetwork(cableStart)).size());
+        assertTrue(snapshot.isInDistance(4, cableStart, cableEnd));
+        assertFalse(snapshot.isInDistance(3, cableStart, cableEnd));
+
+        assertEquals(3, nextSnapshot.getNetworks().size());
+        assertEquals(9, nextSnapshot.getNetworkSize());
+        assertEquals(-1, nextSnapshot.getDistance(cableStart, cableEnd));
+        assertEquals(blockNetwork.getNetwork(cableStart), nextSnapshot.getNetwork(cableStart));
+        assertEquals(1, nextSnapshot.getAdjacentNodes(cableStart).size());
+        assertEquals(Side.BACK, nextSnapshot.getConnectionSide(cableStart, toNode(new Vector3i(0, 0, 1), allDirections)));
+
+        // the cable that has not changed is shared between the snapshots
+        Network otherNetwork = blockNetwork.getNetwork(otherCable);
+        assertEquals(otherNetwork, snapshot.getNetwork(otherCable));
+        assertTrue(snapshot.getNetworkSnapshot(otherNetwork) == nextSnapshot.getNetworkSnapshot(otherNetwork));
+    }
+
+    @Test
+    public void snapshotsMatchTheNetworkAfterManyChanges() {
+        Random random = new Random(1234);
+        Set<Vector3i> locations = Sets.newHashSet();
+        for (int i = 0; i < 3000; i++) {
+            Vector3i location = new Vector3i(random.nextInt(8), random.nextInt(8), random.nextInt(8));
+            if (locations.add(location)) {
+                blockNetwork.addNetworkingBlock(toNode(location, allDirections));
+            } else {
+                locations.remove(location);
+                blockNetwork.removeNetworkingBlock(toNode(location, allDirections));
+            }
+
+            if (i % 100 == 0) {
+                BlockNetworkSnapshot snapshot = blockNetwork.snapshot();
+                assertEquals(Sets.newHashSet(blockNetwork.getNetworks()), Sets.newHashSet(snapshot.getNetworks()));
+                assertEquals(blockNetwork.getNetworkSize(), snapshot.getNetworkSize());
+                NetworkNode someNode = toNode(location, allDirections);
+                for (Vector3i nodeLocation : locations) {
+                    NetworkNode node = toNode(nodeLocation, allDirections);
+                    assertEquals(blockNetwork.getNetwork(node), snapshot.getNetwork(node));
+                    assertEquals(Sets.newHashSet(blockNetwork.getAdjacentNodes(node)), Sets.newHashSet(snapshot.getAdjacentNodes(node)));
+                    assertEquals(blockNetwork.getDistance(node, someNode), snapshot.getDistance(node, someNode));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dispatcherLeavesOutChangesThatCancelOut() {
+        TestListener dispatchedListener = new TestListener();
+        CoalescingTopologyDispatcher dispatcher = new CoalescingTopologyDispatcher(dispatchedListener);
+        blockNetwork.addTopologyListener(dispatcher);
+
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        assertEquals(4, dispatcher.getQueuedEventCount());
+        dispatcher.flush();
+        assertEquals(0, dispatcher.getQueuedEventCount());
+        assertEquals(0, dispatchedListener.networksAdded);
+        assertEquals(0, dispatchedListener.networksRemoved);
+
+        for (int i = 0; i < 3; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        }
+        dispatcher.flush();
+        assertEquals(1, dispatchedListener.networksAdded);
+        assertEquals(3, dispatchedListener.networkingNodesAdded);
+
+        dispatchedListener.reset();
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 3), allDirections));
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 3), allDirections));
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        dispatcher.flush();
+        assertEquals(0, dispatchedListener.networksAdded);
+        assertEquals(0, dispatchedListener.networkingNodesAdded);
+        assertEquals(1, dispatchedListener.networkingNodesRemoved);
+    }
+
+    @Test
+    public void dispatcherPassesOnTheNetChanges() {
+        ValidatingListener dispatchedListener = new ValidatingListener();
+        CoalescingTopologyDispatcher dispatcher = new CoalescingTopologyDispatcher(dispatchedListener);
+        blockNetwork.addTopologyListener(dispatcher);
+
+        Random random = new Random(2468);
+        Set<Vector3i> locations = Sets.newHashSet();
+        for (int i = 0; i < 3000; i++) {
+            Vector3i location = new Vector3i(random.nextInt(6), random.nextInt(6), random.nextInt(6));
+            if (locations.add(location)) {
+                blockNetwork.addNetworkingBlock(toNode(location, allDirections));
+            } else {
+                locations.remove(location);
+                blockNetwork.removeNetworkingBlock(toNode(location, allDirections));
+            }
+
+            if (i % 20 == 0) {
+                dispatcher.flush();
+                assertEquals(Sets.newHashSet(blockNetwork.getNetworks()), dispatchedListener.networks);
+                for (Network network : blockNetwork.getNetworks()) {
+                    assertEquals(Sets.newHashSet(blockNetwork.getNetworkNodes(network)), Sets.newHashSet(dispatchedListener.localNetworkingNodes.get(network)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dispatcherPassesOnBatchesInOrder() {
+        final List<Runnable> tasks = Lists.newArrayList();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        TestListener dispatchedListener = new TestListener();
+        ValidatingListener validatingListener = new ValidatingListener();
+        CoalescingTopologyDispatcher dispatcher = new CoalescingTopologyDispatcher(dispatchedListener, executor);
+        CoalescingTopologyDispatcher validatingDispatcher = new CoalescingTopologyDispatcher(validatingListener, executor);
+        blockNetwork.addTopologyListener(dispatcher);
+        blockNetwork.addTopologyListener(validatingDispatcher);
+
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        dispatcher.flush();
+        validatingDispatcher.flush();
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        dispatcher.flush();
+        validatingDispatcher.flush();
+        assertEquals(4, tasks.size());
+        assertEquals(0, dispatchedListener.networksAdded);
+
+        // the oldest batch is passed on first, whichever task runs
+        tasks.get(3).run();
+        tasks.get(2).run();
+        assertEquals(1, dispatchedListener.networksAdded);
+        assertEquals(0, dispatchedListener.networksRemoved);
+        tasks.get(1).run();
+        tasks.get(0).run();
+        assertEquals(1, dispatchedListener.networksRemoved);
+        assertTrue(validatingListener.networks.isEmpty());
+    }
+
+    @Test
+    public void batchNotifiesOnlyAboutNetChanges() {
+        for (int i = 0; i < 5; i++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        }
+        Network network = blockNetwork.getNetwork(toNode(new Vector3i(0, 0, 0), allDirections));
+        listener.reset();
+
+        blockNetwork.beginBatch();
+        // cut the cable and go around the cut
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 2), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1, 0, 1), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1, 0, 2), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1, 0, 3), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(5, 0, 5), allDirections));
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(5, 0, 5), allDirections));
+        assertTrue(blockNetwork.isBatchOpen());
+        assertEquals(5, blockNetwork.getNetworkSize());
+        assertEquals(0, listener.networkingNodesAdded);
+
+        blockNetwork.commit();
+        assertFalse(blockNetwork.isBatchOpen());
+        assertEquals(7, blockNetwork.getNetworkSize());
+        assertEquals(Arrays.asList(network), Lists.newArrayList(blockNetwork.getNetworks()));
+        assertEquals(6, blockNetwork.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 4), allDirections)));
+        assertEquals(0, listener.networksAdded);
+        assertEquals(0, listener.networksRemoved);
+        assertEquals(3, listener.networkingNodesAdded);
+        assertEquals(1, listener.networkingNodesRemoved);
+    }
+
+    @Test
+    public void batchEndsInTheSameNetworksAsSingleChanges() {
+        BlockNetwork singleChanges = new BlockNetwork();
+        Random random = new Random(1357);
+        Set<Vector3i> locations = Sets.newHashSet();
+        blockNetwork.beginBatch();
+        for (int i = 0; i < 3000; i++) {
+            Vector3i location = new Vector3i(random.nextInt(6), random.nextInt(6), random.nextInt(6));
+            if (locations.add(location)) {
+                blockNetwork.addNetworkingBlock(toNode(location, allDirections));
+                singleChanges.addNetworkingBlock(toNode(location, allDirections));
+            } else {
+                locations.remove(location);
+                blockNetwork.removeNetworkingBlock(toNode(location, allDirections));
+                singleChanges.removeNetworkingBlock(toNode(location, allDirections));
+            }
+
+            if (i % 50 == 0) {
+                blockNetwork.commit();
+                assertEquals(singleChanges.getNetworks().size(), blockNetwork.getNetworks().size());
+                for (Vector3i nodeLocation : locations) {
+                    NetworkNode node = toNode(nodeLocation, allDirections);
+                    assertEquals(Sets.newHashSet(singleChanges.getNetworkNodes(singleChanges.getNetwork(node))),
+                            Sets.newHashSet(blockNetwork.getNetworkNodes(blockNetwork.getNetwork(node))));
+                }
+                blockNetwork.beginBatch();
+            }
+        }
+        blockNetwork.commit();
+    }
+
+    @Test
+    public void updatingNodeChangesOnlyItsConnections() {
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(-1, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(1, 0, 0), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(0, 1, 0), allDirections));
+        Network network = blockNetwork.getNetwork(toNode(new Vector3i(0, 0, 0), allDirections));
+        listener.reset();
+
+        // the bottom side is not used by any connection
+        SidedLocationNetworkNode withoutBottom = new SidedLocationNetworkNode(new Vector3i(0, 0, 0), Side.LEFT, Side.RIGHT, Side.TOP);
+        blockNetwork.updateNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections), withoutBottom);
+        assertEquals(Arrays.asList(network), Lists.newArrayList(blockNetwork.getNetworks()));
+        assertEquals(0, listener.networksAdded);
+        assertEquals(0, listener.networksRemoved);
+        assertEquals(1, listener.networkingNodesRemoved);
+        assertEquals(1, listener.networkingNodesAdded);
+        assertTrue(blockNetwork.hasNetworkingNode(network, withoutBottom));
+        assertEquals(3, blockNetwork.getAdjacentNodes(withoutBottom).size());
+
+        listener.reset();
+        SidedLocationNetworkNode withoutTop = new SidedLocationNetworkNode(new Vector3i(0, 0, 0), Side.LEFT, Side.RIGHT);
+        blockNetwork.updateNetworkingBlock(withoutBottom, withoutTop);
+        assertEquals(2, blockNetwork.getNetworks().size());
+        assertEquals(1, listener.networksAdded);
+        assertEquals(0, listener.networksRemoved);
+        assertEquals(2, blockNetwork.getDistance(toNode(new Vector3i(-1, 0, 0), allDirections), toNode(new Vector3i(1, 0, 0), allDirections)));
+
+        listener.reset();
+        blockNetwork.updateNetworkingBlock(withoutTop, toNode(new Vector3i(0, 0, 0), allDirections));
+        assertEquals(1, blockNetwork.getNetworks().size());
+        assertEquals(0, listener.networksAdded);
+        assertEquals(1, listener.networksRemoved);
+        assertEquals(1, blockNetwork.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 1, 0), allDirections)));
+    }
+
+    @Test
+    public void updatedNodesConnectLikeNewlyAddedNodes() {
+        Random random = new Random(8642);
+        Map<Vector3i, SidedLocationNetworkNode> nodes = Maps.newHashMap();
+        for (int i = 0; i < 3000; i++) {
+            Vector3i location = new Vector3i(random.nextInt(6), random.nextInt(6), random.nextInt(6));
+            SidedLocationNetworkNode node = toNode(location, (byte) random.nextInt(64));
+            SidedLocationNetworkNode oldNode = nodes.put(location, node);
+            if (oldNode == null) {
+                blockNetwork.addNetworkingBlock(node);
+            } else {
+                blockNetwork.updateNetworkingBlock(oldNode, node);
+            }
+        }
+
+        BlockNetwork addedNetwork = new BlockNetwork();
+        addedNetwork.addNetworkingBlocks(Lists.<NetworkNode>newArrayList(nodes.values()));
+        assertEquals(addedNetwork.getNetworks().size(), blockNetwork.getNetworks().size());
+        for (SidedLocationNetworkNode node : nodes.values()) {
+            assertEquals(Sets.newHashSet(addedNetwork.getAdjacentNodes(node)), Sets.newHashSet(blockNetwork.getAdjacentNodes(node)));
+            assertEquals(Sets.newHashSet(addedNetwork.getNetworkNodes(addedNetwork.getNetwork(node))),
+                    Sets.newHashSet(blockNetwork.getNetworkNodes(blockNetwork.getNetwork(node))));
+        }
+    }
+
+    @Test
+    public void criticalNodesAreTheOnesThatSplitTheNetwork() {
+        // a loop around (1, 0, 0) with a cable of two nodes going up from its corner
+        List<Vector3i> loop = Arrays.asList(new Vector3i(0, 0, 0), new Vector3i(0, 0, 1), new Vector3i(1, 0, 1), new Vector3i(2, 0, 1),
+                new Vector3i(2, 0, 0), new Vector3i(2, 0, -1), new Vector3i(1, 0, -1), new Vector3i(0, 0, -1));
+        for (Vector3i location : loop) {
+            blockNetwork.addNetworkingBlock(toNode(location, allDirections));
+        }
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(2, 1, 1), allDirections));
+        blockNetwork.addNetworkingBlock(toNode(new Vector3i(2, 2, 1), allDirections));
+
+        for (Vector3i location : loop) {
+            assertEquals(location.equals(new Vector3i(2, 0, 1)), blockNetwork.isCriticalNode(toNode(location, allDirections)));
+        }
+        assertTrue(blockNetwork.isCriticalNode(toNode(new Vector3i(2, 1, 1), allDirections)));
+        assertFalse(blockNetwork.isCriticalNode(toNode(new Vector3i(2, 2, 1), allDirections)));
+        assertFalse(blockNetwork.isCriticalNode(toNode(new Vector3i(5, 5, 5), allDirections)));
+
+        // opening the loop makes all of its nodes between the ends critical
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        assertEquals(1, blockNetwork.getNetworks().size());
+        assertFalse(blockNetwork.isCriticalNode(toNode(new Vector3i(0, 0, 1), allDirections)));
+        assertTrue(blockNetwork.isCriticalNode(toNode(new Vector3i(1, 0, 1), allDirections)));
+        assertTrue(blockNetwork.isCriticalNode(toNode(new Vector3i(2, 0, 0), allDirections)));
+        assertFalse(blockNetwork.isCriticalNode(toNode(new Vector3i(0, 0, -1), allDirections)));
+    }
+
+    @Test
+    public void removalsSplitNetworksCorrectlyAfterManyChanges() {
+        Random random = new Random(2468);
+        Set<Vector3i> locations = Sets.newHashSet();
+        for (int i = 0; i < 6000; i++) {
+            Vector3i location = new Vector3i(random.nextInt(6), random.nextInt(6), random.nextInt(2));
+            // more additions than removals, so the networks have loops
+            if (locations.size() < 40 || random.nextInt(3) > 0) {
+                if (locations.add(location)) {
+                    blockNetwork.addNetworkingBlock(toNode(location, allDirections));
+                }
+            } else if (locations.remove(location)) {
+                blockNetwork.removeNetworkingBlock(toNode(location, allDirections));
+            }
+
+            Vector3i checked = new Vector3i(random.nextInt(6), random.nextInt(6), random.nextInt(2));
+            if (locations.contains(checked)) {
+                Set<Vector3i> withoutChecked = Sets.newHashSet(locations);
+                withoutChecked.remove(checked);
+                boolean critical = countConnectedParts(withoutChecked) > countConnectedParts(locations);
+                assertEquals(critical, blockNetwork.isCriticalNode(toNode(checked, allDirections)));
+            }
+            if (i % 100 == 0) {
+                assertEquals(countConnectedParts(locations), blockNetwork.getNetworks().size());
+            }
+        }
+
+        for (Vector3i location : locations) {
+            SidedLocationNetworkNode node = toNode(location, allDirections);
+            assertEquals(Sets.newHashSet(blockNetwork.getNetworkNodes(blockNetwork.getNetwork(node))),
+                    Sets.newHashSet(blockNetwork.getDistances(node).getReachableNodes()));
+        }
+    }
+
+    private static int countConnectedParts(Set<Vector3i> locations) {
+        Set<Vector3i> visited = Sets.newHashSet();
+        int count = 0;
+        for (Vector3i location : locations) {
+            if (visited.add(location)) {
+                count++;
+                List<Vector3i> queue = Lists.newArrayList(location);
+                while (!queue.isEmpty()) {
+                    Vector3i current = queue.remove(queue.size() - 1);
+                    for (Side side : Side.values()) {
+                        Vector3i neighbour = side.getAdjacentPos(current);
+                        if (locations.contains(neighbour) && visited.add(neighbour)) {
+                            queue.add(neighbour);
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void lazySplittingSplitsNetworksOnlyWhenNeeded() {
+        for (int x = 0; x < 9; x++) {
+            blockNetwork.addNetworkingBlock(toNode(new Vector3i(x, 0, 0), allDirections));
+        }
+        blockNetwork.setLazySplitting(true);
+        listener.reset();
+
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(2, 0, 0), allDirections));
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(6, 0, 0), allDirections));
+        assertEquals(2, listener.networkingNodesRemoved);
+        assertEquals(0, listener.networksAdded);
+
+        blockNetwork.flush();
+        assertEquals(2, listener.networksAdded);
+        assertEquals(3, blockNetwork.getNetworks().size());
+
+        listener.reset();
+        blockNetwork.removeNetworkingBlock(toNode(new Vector3i(4, 0, 0), allDirections));
+        assertEquals(0, listener.networksAdded);
+        assertFalse(blockNetwork.areInSameNetwork(toNode(new Vector3i(3, 0, 0), allDirections), toNode(new Vector3i(5, 0, 0), allDirections)));
+        assertEquals(1, listener.networksAdded);
+        assertEquals(4, blockNetwork.getNetworks().size());
+    }
+
+    @Test
+    public void lazySplittingEndsInTheSameNetworksAsSplittingRightAway() {
+        ValidatingListener validatingListener = new ValidatingListener();
+        blockNetwork.addTopologyListener(validatingListener);
+        blockNetwork.setLazySplitting(true);
+        BlockNetwork splitRightAway = new BlockNetwork();
+        Random random = new Random(9753);
+        Map<Vector3i, SidedLocationNetworkNode> nodes = Maps.newHashMap();
+        for (int i = 0; i < 4000; i++) {
+            Vector3i location = new Vector3i(random.nextInt(6), random.nextInt(6), random.nextInt(6));
+            SidedLocationNetworkNode node = toNode(location, (byte) (random.nextInt(2) == 0 ? allDirections : random.nextInt(64)));
+            SidedLocationNetworkNode oldNode = nodes.get(location);
+            if (oldNode == null) {
+                nodes.put(location, node);
+                blockNetwork.addNetworkingBlock(node);
+                splitRightAway.addNetworkingBlock(node);
+            } else if (random.nextInt(3) == 0) {
+                nodes.put(location, node);
+                blockNetwork.updateNetworkingBlock(oldNode, node);
+                splitRightAway.updateNetworkingBlock(oldNode, node);
+            } else {
+                nodes.remove(location);
+                blockNetwork.removeNetworkingBlock(oldNode);
+                splitRightAway.removeNetworkingBlock(oldNode);
+            }
+
+            if (i % 100 == 0) {
+                assertEquals(splitRightAway.getNetworks().size(), blockNetwork.getNetworks().size());
+                assertEquals(Sets.newHashSet(blockNetwork.getNetworks()), validatingListener.networks);
+                for (SidedLocationNetworkNode checkedNode : nodes.values()) {
+                    assertEquals(Sets.newHashSet(splitRightAway.getNetworkNodes(splitRightAway.getNetwork(checkedNode))),
+                            Sets.newHashSet(blockNetwork.getNetworkNodes(blockNetwork.getNetwork(checkedNode))));
+                }
+                for (Network network : blockNetwork.getNetworks()) {
+                    assertEquals(Sets.newHashSet(blockNetwork.getNetworkNodes(network)), Sets.newHashSet(validatingListener.localNetworkingNodes.get(network)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void queriesRunInParallelWithModifications() throws InterruptedException {
+        final BlockNetwork threadSafeNetwork = new BlockNetwork(true);
+        threadSafeNetwork.setPathCacheSize(10);
+        final int length = 20;
+        for (int i = 0; i <= length; i++) {
+            threadSafeNetwork.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        }
+        final NetworkNode start = toNode(new Vector3i(0, 0, 0), allDirections);
+        final NetworkNode end = toNode(new Vector3i(0, 0, length), allDirections);
+        final NetworkNode middle = toNode(new Vector3i(0, 0, length / 2), allDirections);
+
+        final AtomicBoolean modifying = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> readers = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (modifying.get()) {
+                            // the cable is either whole or cut in the middle, never anything in between
+                            NetworkPath path = threadSafeNetwork.getPath(start, end);
+                            if (path != null) {
+                                assertEquals(length, path.getDistance());
+                            }
+                            int networkCount = threadSafeNetwork.getNetworks().size();
+                            assertTrue(networkCount == 1 || networkCount == 2);
+                            int reachableCount = threadSafeNetwork.getDistances(start).size();
+                            assertTrue(reachableCount == length + 1 || reachableCount == length / 2);
+                            assertTrue(threadSafeNetwork.isInDistance(length / 2 - 1, start, toNode(new Vector3i(0, 0, length / 2 - 1), allDirections)));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            threadSafeNetwork.removeNetworkingBlock(middle);
+            threadSafeNetwork.addNetworkingBlock(middle);
+        }
+        modifying.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(length, threadSafeNetwork.getDistance(start, end));
+    }
+
+    private static class GroupNetworkNode implements NetworkNode {
+        private final String name;
+        private final int group;
+
+        private GroupNetworkNode(String name, int group) {
+            this.name = name;
+            this.group = group;
+        }
+
+        @Override
+        public boolean isConnectedTo(NetworkNode networkNode) {
+            return networkNode instanceof GroupNetworkNode && ((GroupNetworkNode) networkNode).group == group;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            GroupNetworkNode that = (GroupNetworkNode) o;
+            return name.equals(that.name) && group == that.group;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + group;
+        }
+    }
+
     private class TestListener implements NetworkTopologyListener {
         public int networksAdded;
         public int networksRemoved;
@@ -171,6 +929,21 @@ public class BlockNetworkTest {
         }
     }
 
+    private class MergeListener extends TestListener implements NetworkMergeListener {
+        public int merges;
+        public Network lastTarget;
+        public Network lastSource;
+        public Collection<NetworkNode> lastMovedNodes;
+
+        @Override
+        public void networksMerged(Network target, Network source, Collection<NetworkNode> movedNodes) {
+            merges++;
+            lastTarget = target;
+            lastSource = source;
+            lastMovedNodes = Lists.newArrayList(movedNodes);
+        }
+    }
+
     private class ValidatingListener implements NetworkTopologyListener {
         private Set<Network> networks = Sets.newHashSet();
         private Multimap<Network, NetworkNode> localNetworkingNodes = HashMultimap.create();
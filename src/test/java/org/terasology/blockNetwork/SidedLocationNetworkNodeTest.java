@@ -22,6 +22,7 @@ import org.terasology.math.Side;
 import org.terasology.math.SideBitFlag;
 import org.terasology.math.Vector3i;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -77,4 +78,32 @@ public class SidedLocationNetworkNodeTest {
         assertFalse(filter.apply(new TwoNetworkNodes(side, bottom)));
     }
 
+    @Test
+    public void connectionSideMatchesSideInDirection() {
+        SidedLocationNetworkNode center = new SidedLocationNetworkNode(new Vector3i(0, 0, 0), allDirections);
+        for (int x = -2; x <= 2; x++) {
+            for (int y = -2; y <= 2; y++) {
+                for (int z = -2; z <= 2; z++) {
+                    SidedLocationNetworkNode other = new SidedLocationNetworkNode(new Vector3i(x, y, z), allDirections);
+                    assertEquals(Side.inDirection(x, y, z), center.connectionSide(other));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void connectableLocationsFollowConnectionSides() {
+        Vector3i location = new Vector3i(3, 4, 5);
+        long packedLocation = PackedBlockLocation.pack(location);
+        SidedLocationNetworkNode topAndLeft = new SidedLocationNetworkNode(location, Side.TOP, Side.LEFT);
+        assertArrayEquals(new long[]{PackedBlockLocation.move(packedLocation, Side.TOP), PackedBlockLocation.move(packedLocation, Side.LEFT)},
+                topAndLeft.getConnectableLocations());
+
+        // a node in the same block is in the FRONT direction
+        SidedLocationNetworkNode front = new SidedLocationNetworkNode(location, Side.FRONT);
+        assertArrayEquals(new long[]{packedLocation, PackedBlockLocation.move(packedLocation, Side.FRONT)},
+                front.getConnectableLocations());
+        assertTrue(front.isConnectedTo(new SidedLocationNetworkNode(location, Side.BACK)));
+        assertFalse(new SidedLocationNetworkNode(location, Side.BACK).isConnectedTo(front));
+    }
 }
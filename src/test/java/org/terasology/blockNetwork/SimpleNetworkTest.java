@@ -1,11 +1,18 @@
 package org.terasology.blockNetwork;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
 import org.terasology.math.Side;
 import org.terasology.math.SideBitFlag;
 import org.terasology.math.Vector3i;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class SimpleNetworkTest {
@@ -198,4 +205,470 @@ public class SimpleNetworkTest {
         assertEquals(10, network.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(5, 0, 5), allDirections)));
 
     }
+
+    @Test
+    public void pathContainsIntermediateNodes() {
+        for (int i = 0; i < 5; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 2), allDirections));
+
+        NetworkPath path = network.getPath(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(1, 0, 2), allDirections));
+        assertEquals(3, path.getDistance());
+        assertEquals(Arrays.asList(toNode(new Vector3i(0, 0, 1), allDirections), toNode(new Vector3i(0, 0, 2), allDirections)), path.getPath());
+
+        path = network.getPath(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 1), allDirections));
+        assertEquals(1, path.getDistance());
+        assertFalse(path.getPath().iterator().hasNext());
+    }
+
+    @Test
+    public void noPathBetweenSeparateNetworks() {
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 2), allDirections));
+
+        assertNull(network.getPath(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 2), allDirections)));
+        assertEquals(-1, network.getDistance(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 2), allDirections)));
+        assertFalse(network.isInDistance(10, toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(0, 0, 2), allDirections)));
+        assertNull(network.getPath(toNode(new Vector3i(0, 0, 0), allDirections), toNode(new Vector3i(5, 0, 5), allDirections)));
+    }
+
+    @Test
+    public void noPathWhenAllEdgesAreFilteredOut() {
+        SidedLocationNetworkNode firstLeaf = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode secondLeaf = toNode(new Vector3i(0, 0, 2), allDirections);
+        network.addNetworkingBlock(firstLeaf);
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 1), allDirections));
+        network.addNetworkingBlock(secondLeaf);
+
+        assertNull(network.getPath(firstLeaf, secondLeaf, SidedLocationNetworkNode.createSideConnectivityFilter(Side.TOP, secondLeaf.location)));
+        assertEquals(-1, network.getDistance(firstLeaf, secondLeaf, SidedLocationNetworkNode.createSideConnectivityFilter(Side.TOP, secondLeaf.location)));
+    }
+
+    @Test
+    public void aStarFindsPathsAsShortAsBreadthFirstSearch() {
+        Random random = new Random(1234);
+        List<SidedLocationNetworkNode> nodes = Lists.newArrayList();
+        for (int x = 0; x < 12; x++) {
+            for (int z = 0; z < 12; z++) {
+                if (random.nextInt(4) != 0) {
+                    SidedLocationNetworkNode node = toNode(new Vector3i(x, random.nextInt(2), z), random.nextBoolean() ? allDirections : (byte) 0x3c);
+                    network.addNetworkingBlock(node);
+                    nodes.add(node);
+                }
+            }
+        }
+
+        for (int i = 0; i < 200; i++) {
+            SidedLocationNetworkNode from = nodes.get(random.nextInt(nodes.size()));
+            SidedLocationNetworkNode to = nodes.get(random.nextInt(nodes.size()));
+            NetworkPath breadthFirstPath = network.getPath(from, to, null, PathFindingAlgorithm.BREADTH_FIRST);
+            NetworkPath aStarPath = network.getPath(from, to, null, PathFindingAlgorithm.A_STAR);
+            if (breadthFirstPath == null) {
+                assertNull(aStarPath);
+            } else {
+                assertEquals(breadthFirstPath.getDistance(), aStarPath.getDistance());
+                assertEquals(Math.max(0, aStarPath.getDistance() - 1), Iterables.size(aStarPath.getPath()));
+            }
+        }
+    }
+
+    @Test
+    public void aStarHonorsEdgeFilter() {
+        SidedLocationNetworkNode firstLeaf = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode secondLeaf = toNode(new Vector3i(0, 0, 2), allDirections);
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 1), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(0, 1, 1), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(0, 1, 2), allDirections));
+        network.addNetworkingBlock(secondLeaf);
+        network.addNetworkingBlock(firstLeaf);
+
+        assertEquals(2, network.getPath(firstLeaf, secondLeaf, SidedLocationNetworkNode.createSideConnectivityFilter(Side.FRONT, secondLeaf.location), PathFindingAlgorithm.A_STAR).getDistance());
+        assertEquals(4, network.getPath(firstLeaf, secondLeaf, SidedLocationNetworkNode.createSideConnectivityFilter(Side.TOP, secondLeaf.location), PathFindingAlgorithm.A_STAR).getDistance());
+    }
+
+    @Test
+    public void predicatesAndEdgeFiltersFindTheSamePaths() {
+        network.setPathCacheSize(10);
+        final SidedLocationNetworkNode blocked = toNode(new Vector3i(0, 0, 1), allDirections);
+        SidedLocationNetworkNode firstLeaf = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode secondLeaf = toNode(new Vector3i(0, 0, 2), allDirections);
+        network.addNetworkingBlock(firstLeaf);
+        network.addNetworkingBlock(blocked);
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 0), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 1), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 2), allDirections));
+        network.addNetworkingBlock(secondLeaf);
+
+        Predicate<TwoNetworkNodes> predicate = new Predicate<TwoNetworkNodes>() {
+            @Override
+            public boolean apply(TwoNetworkNodes input) {
+                return !input.node1.equals(blocked) && !input.node2.equals(blocked);
+            }
+        };
+        EdgeFilter edgeFilter = new EdgeFilter() {
+            @Override
+            public boolean test(NetworkNode from, NetworkNode to) {
+                return !from.equals(blocked) && !to.equals(blocked);
+            }
+        };
+
+        assertEquals(4, network.getDistance(firstLeaf, secondLeaf, predicate));
+        assertEquals(4, network.getDistance(firstLeaf, secondLeaf, edgeFilter));
+        assertEquals(4, network.getPath(firstLeaf, secondLeaf, predicate, PathFindingAlgorithm.A_STAR).getDistance());
+        assertEquals(4, network.getDistances(firstLeaf, Integer.MAX_VALUE, predicate).getDistance(secondLeaf));
+        assertEquals(4, network.getDistances(firstLeaf, Integer.MAX_VALUE, edgeFilter).getDistance(secondLeaf));
+        assertFalse(network.isInDistance(3, firstLeaf, secondLeaf, predicate));
+        assertEquals(2, network.getDistance(firstLeaf, secondLeaf, (EdgeFilter) null));
+
+        // the same predicate is wrapped into equal cache keys
+        long hits = network.getPathCacheHits();
+        assertEquals(4, network.getDistance(firstLeaf, secondLeaf, predicate));
+        assertEquals(hits + 1, network.getPathCacheHits());
+    }
+
+    @Test
+    public void pathsKnowTheSidesOfTheirConnections() {
+        SidedLocationNetworkNode start = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode end = toNode(new Vector3i(1, 1, 1), allDirections);
+        network.addNetworkingBlock(start);
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 1), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 1), allDirections));
+        network.addNetworkingBlock(end);
+
+        List<Side> expectedSides = Arrays.asList(Side.BACK, Side.RIGHT, Side.TOP);
+        for (PathFindingAlgorithm algorithm : PathFindingAlgorithm.values()) {
+            assertEquals(expectedSides, getConnectionSides(network.getPath(start, end, null, algorithm)));
+        }
+        assertEquals(expectedSides, getConnectionSides(network.getDistances(start).getPath(end)));
+        assertEquals(Side.BACK, network.getConnectionSide(start, toNode(new Vector3i(0, 0, 1), allDirections)));
+        assertEquals(Side.FRONT, network.getConnectionSide(toNode(new Vector3i(0, 0, 1), allDirections), start));
+        assertNull(network.getConnectionSide(start, end));
+    }
+
+    @Test
+    public void edgeFiltersAndPathsGetConnectionTags() {
+        SidedLocationNetworkNode start = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode end = toNode(new Vector3i(0, 0, 2), allDirections);
+        network.addNetworkingBlock(start);
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 1), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 0), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 1), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(1, 0, 2), allDirections));
+        network.addNetworkingBlock(end);
+        // tag the connections with the x coordinate of the block they lead to
+        network.setEdgeTagFunction(new EdgeTagFunction() {
+            @Override
+            public int getTag(NetworkNode from, NetworkNode to) {
+                return ((LocationNetworkNode) to).location.x;
+            }
+        });
+        EdgeFilter onlyToX1 = new EdgeFilter() {
+            @Override
+            public boolean test(NetworkNode from, NetworkNode to) {
+                throw new AssertionError("searches should pass the connection data");
+            }
+
+            @Override
+            public boolean test(NetworkNode from, NetworkNode to, Side side, int tag) {
+                return tag == 1 || to.equals(toNode(new Vector3i(0, 0, 2), allDirections));
+            }
+        };
+
+        NetworkPath path = network.getPath(start, end, onlyToX1, PathFindingAlgorithm.BREADTH_FIRST);
+        assertEquals(4, path.getDistance());
+        assertEquals(Arrays.asList(Side.RIGHT, Side.BACK, Side.BACK, Side.LEFT), getConnectionSides(path));
+        assertEquals(1, path.getConnectionTag(0));
+        assertEquals(0, path.getConnectionTag(3));
+        assertEquals(4, network.getPath(start, end, onlyToX1, PathFindingAlgorithm.A_STAR).getDistance());
+        assertEquals(4, network.getDistances(start, Integer.MAX_VALUE, onlyToX1).getDistance(end));
+        assertEquals(1, network.getConnectionTag(start, toNode(new Vector3i(1, 0, 0), allDirections)));
+
+        network.addNetworkingBlock(toNode(new Vector3i(-1, 0, 0), allDirections));
+        assertEquals(-1, network.getConnectionTag(start, toNode(new Vector3i(-1, 0, 0), allDirections)));
+    }
+
+    private static List<Side> getConnectionSides(NetworkPath path) {
+        List<Side> sides = Lists.newArrayList();
+        for (int i = 0; i < path.getConnectionCount(); i++) {
+            sides.add(path.getConnectionSide(i));
+        }
+        return sides;
+    }
+
+    @Test
+    public void connectionSidesAcrossTheWrappingOfPackedLocations() {
+        // the packed x coordinate wraps around between 2^20 - 1 and 2^20
+        int wrappingX = 1 << 20;
+        for (int x = wrappingX - 2; x <= wrappingX + 1; x++)
+            network.addNetworkingBlock(toNode(new Vector3i(x, 0, 0), allDirections));
+        SidedLocationNetworkNode beforeWrap = toNode(new Vector3i(wrappingX - 1, 0, 0), allDirections);
+        SidedLocationNetworkNode afterWrap = toNode(new Vector3i(wrappingX, 0, 0), allDirections);
+        Side towardsPositiveX = SideDirections.inDirection(beforeWrap.location, afterWrap.location);
+
+        NetworkPath path = network.getPath(toNode(new Vector3i(wrappingX - 2, 0, 0), allDirections), toNode(new Vector3i(wrappingX + 1, 0, 0), allDirections));
+        assertEquals(3, path.getDistance());
+        assertEquals(Arrays.asList(towardsPositiveX, towardsPositiveX, towardsPositiveX), getConnectionSides(path));
+        assertEquals(towardsPositiveX, network.getConnectionSide(beforeWrap, afterWrap));
+        assertEquals(towardsPositiveX.reverse(), network.getConnectionSide(afterWrap, beforeWrap));
+    }
+
+    @Test
+    public void aStarFindsShortestPathsAcrossTheWrappingOfPackedLocations() {
+        int wrappingX = 1 << 20;
+        assertEquals(1, PackedBlockLocation.getManhattanDistance(PackedBlockLocation.pack(wrappingX - 1, 0, 0), PackedBlockLocation.pack(wrappingX, 0, 0)));
+        assertEquals(3, PackedBlockLocation.getManhattanDistance(PackedBlockLocation.pack(wrappingX + 1, 0, 0), PackedBlockLocation.pack(wrappingX - 2, 0, 0)));
+
+        // a straight cable across the wrap, and a longer detour next to it
+        for (int x = wrappingX - 3; x <= wrappingX + 2; x++) {
+            network.addNetworkingBlock(toNode(new Vector3i(x, 0, 0), allDirections));
+            network.addNetworkingBlock(toNode(new Vector3i(x, 0, 2), allDirections));
+        }
+        network.addNetworkingBlock(toNode(new Vector3i(wrappingX - 3, 0, 1), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(wrappingX + 2, 0, 1), allDirections));
+        SidedLocationNetworkNode start = toNode(new Vector3i(wrappingX - 3, 0, 1), allDirections);
+        SidedLocationNetworkNode end = toNode(new Vector3i(wrappingX + 2, 0, 1), allDirections);
+
+        assertEquals(7, network.getPath(start, end, null, PathFindingAlgorithm.BREADTH_FIRST).getDistance());
+        assertEquals(7, network.getPath(start, end, null, PathFindingAlgorithm.A_STAR).getDistance());
+        network.removeNetworkingBlock(toNode(new Vector3i(wrappingX, 0, 0), allDirections));
+        assertEquals(7, network.getPath(start, end, null, PathFindingAlgorithm.A_STAR).getDistance());
+        network.removeNetworkingBlock(toNode(new Vector3i(wrappingX - 1, 0, 2), allDirections));
+        assertNull(network.getPath(start, end, null, PathFindingAlgorithm.A_STAR));
+    }
+
+    @Test
+    public void cachedPathsAreInvalidatedWhenNetworkChanges() {
+        network.setPathCacheSize(10);
+        SidedLocationNetworkNode firstLeaf = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode secondLeaf = toNode(new Vector3i(0, 0, 4), allDirections);
+        for (int i = 0; i <= 4; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(5, 0, 5), allDirections));
+
+        assertEquals(4, network.getDistance(firstLeaf, secondLeaf));
+        assertEquals(4, network.getDistance(firstLeaf, secondLeaf));
+        assertTrue(network.isInDistance(4, firstLeaf, secondLeaf, SidedLocationNetworkNode.createSideConnectivityFilter(Side.FRONT, secondLeaf.location)));
+        assertTrue(network.isInDistance(4, firstLeaf, secondLeaf, SidedLocationNetworkNode.createSideConnectivityFilter(Side.FRONT, secondLeaf.location)));
+        assertEquals(2, network.getPathCacheHits());
+        assertEquals(2, network.getPathCacheMisses());
+
+        // a change in another network keeps the cached paths
+        network.removeNetworkingBlock(toNode(new Vector3i(5, 0, 5), allDirections));
+        assertEquals(4, network.getDistance(firstLeaf, secondLeaf));
+        assertEquals(3, network.getPathCacheHits());
+
+        network.removeNetworkingBlock(toNode(new Vector3i(0, 0, 2), allDirections));
+        assertEquals(-1, network.getDistance(firstLeaf, secondLeaf));
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 2), allDirections));
+        assertEquals(4, network.getDistance(firstLeaf, secondLeaf));
+        assertEquals(3, network.getPathCacheHits());
+        assertEquals(3, network.getPathCacheMisses());
+    }
+
+    @Test
+    public void cachedPathsCannotBeModified() {
+        network.setPathCacheSize(10);
+        for (int i = 0; i <= 4; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        SidedLocationNetworkNode firstLeaf = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode secondLeaf = toNode(new Vector3i(0, 0, 4), allDirections);
+
+        NetworkPath path = network.getPath(firstLeaf, secondLeaf);
+        try {
+            ((List<NetworkNode>) path.getPath()).clear();
+            fail("The path of a cached result can be modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(3, Iterables.size(network.getPath(firstLeaf, secondLeaf).getPath()));
+        assertEquals(1, network.getPathCacheHits());
+    }
+
+    @Test
+    public void leastRecentlyUsedPathsAreEvicted() {
+        network.setPathCacheSize(2);
+        for (int i = 0; i < 5; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        SidedLocationNetworkNode start = toNode(new Vector3i(0, 0, 0), allDirections);
+
+        network.getDistance(start, toNode(new Vector3i(0, 0, 1), allDirections));
+        network.getDistance(start, toNode(new Vector3i(0, 0, 2), allDirections));
+        network.getDistance(start, toNode(new Vector3i(0, 0, 1), allDirections));
+        network.getDistance(start, toNode(new Vector3i(0, 0, 3), allDirections));
+        assertEquals(1, network.getPathCacheHits());
+
+        network.getDistance(start, toNode(new Vector3i(0, 0, 1), allDirections));
+        assertEquals(2, network.getPathCacheHits());
+        network.getDistance(start, toNode(new Vector3i(0, 0, 2), allDirections));
+        assertEquals(2, network.getPathCacheHits());
+        assertEquals(4, network.getPathCacheMisses());
+    }
+
+    @Test
+    public void distanceCheckDoesNotLookBeyondTheDistance() {
+        for (int i = 0; i < 100; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        SidedLocationNetworkNode firstLeaf = toNode(new Vector3i(0, 0, 0), allDirections);
+
+        assertTrue(network.isInDistance(99, firstLeaf, toNode(new Vector3i(0, 0, 99), allDirections)));
+        assertFalse(network.isInDistance(98, firstLeaf, toNode(new Vector3i(0, 0, 99), allDirections)));
+        assertTrue(network.isInDistance(16, firstLeaf, toNode(new Vector3i(0, 0, 16), allDirections)));
+        assertFalse(network.isInDistance(16, firstLeaf, toNode(new Vector3i(0, 0, 17), allDirections)));
+        assertFalse(network.isInDistance(-1, firstLeaf, firstLeaf));
+    }
+
+    @Test
+    public void distancesFromSingleSource() {
+        for (int i = 0; i < 10; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        for (int i = 1; i <= 5; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(i, 0, 5), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(7, 0, 7), allDirections));
+        SidedLocationNetworkNode source = toNode(new Vector3i(0, 0, 0), allDirections);
+
+        NetworkDistanceMap distances = network.getDistances(source);
+        assertEquals(15, distances.size());
+        assertEquals(0, distances.getDistance(source));
+        assertEquals(9, distances.getDistance(toNode(new Vector3i(0, 0, 9), allDirections)));
+        assertEquals(10, distances.getDistance(toNode(new Vector3i(5, 0, 5), allDirections)));
+        assertEquals(-1, distances.getDistance(toNode(new Vector3i(7, 0, 7), allDirections)));
+        assertNull(distances.getPath(toNode(new Vector3i(7, 0, 7), allDirections)));
+        assertEquals(network.getPath(source, toNode(new Vector3i(2, 0, 5), allDirections)).getPath(),
+                distances.getPath(toNode(new Vector3i(2, 0, 5), allDirections)).getPath());
+        assertFalse(distances.getPath(source).getPath().iterator().hasNext());
+
+        distances = network.getDistances(source, 6, null);
+        assertEquals(8, distances.size());
+        assertEquals(6, distances.getDistance(toNode(new Vector3i(0, 0, 6), allDirections)));
+        assertEquals(6, distances.getDistance(toNode(new Vector3i(1, 0, 5), allDirections)));
+        assertFalse(distances.contains(toNode(new Vector3i(0, 0, 7), allDirections)));
+
+        distances = network.getDistances(source, Integer.MAX_VALUE, SidedLocationNetworkNode.createSideConnectivityFilter(Side.BACK, new Vector3i(0, 0, 3)));
+        assertEquals(3, distances.size());
+    }
+
+    @Test
+    public void aStarFallsBackToBreadthFirstSearchWithNodesThatAreNotSpatial() {
+        SidedLocationNetworkNode start = toNode(new Vector3i(5, 0, 0), allDirections);
+        SidedLocationNetworkNode end = toNode(new Vector3i(50, 0, 0), allDirections);
+        network.addNetworkingBlock(start);
+        network.addNetworkingBlock(end);
+        // connected to every node, so the path through it is much shorter than the distance between the ends
+        network.addNetworkingBlock(new NetworkNode() {
+            @Override
+            public boolean isConnectedTo(NetworkNode networkNode) {
+                return true;
+            }
+        });
+
+        assertEquals(2, network.getPath(start, end).getDistance());
+        assertEquals(2, network.getPath(start, end, null, PathFindingAlgorithm.A_STAR).getDistance());
+    }
+
+    @Test
+    public void weightedPathsPreferCheaperConnections() {
+        // a straight cable, and a longer detour over nodes above it that are cheap to pass
+        for (int i = 0; i <= 4; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 0, i), allDirections));
+        for (int i = 0; i <= 4; i++)
+            network.addNetworkingBlock(toNode(new Vector3i(0, 1, i), allDirections));
+        SidedLocationNetworkNode start = toNode(new Vector3i(0, 0, 0), allDirections);
+        SidedLocationNetworkNode end = toNode(new Vector3i(0, 0, 4), allDirections);
+        EdgeCostFunction cheapAbove = new EdgeCostFunction() {
+            @Override
+            public int getCost(NetworkNode from, NetworkNode to) {
+                return ((LocationNetworkNode) to).location.y > 0 || ((LocationNetworkNode) from).location.y > 0 ? 1 : 10;
+            }
+        };
+
+        NetworkPath path = network.getPath(start, end, null, cheapAbove);
+        assertEquals(6, path.getDistance());
+        assertEquals(5, Iterables.size(path.getPath()));
+        assertEquals(4, network.getDistance(start, end));
+
+        NetworkDistanceMap distances = network.getDistances(start, Integer.MAX_VALUE, null, cheapAbove);
+        assertEquals(10, distances.size());
+        assertEquals(6, distances.getDistance(end));
+        assertEquals(3, distances.getDistance(toNode(new Vector3i(0, 0, 1), allDirections)));
+        assertEquals(4, distances.getDistance(toNode(new Vector3i(0, 1, 3), allDirections)));
+
+        distances = network.getDistances(start, 5, null, cheapAbove);
+        assertEquals(9, distances.size());
+        assertFalse(distances.contains(end));
+    }
+
+    @Test
+    public void weightedPathsTakeDetoursAroundConnectionsWithMaximumCost() {
+        // two rows of four nodes, where passing through the second node of the first row costs the most possible
+        for (int x = 0; x < 4; x++) {
+            network.addNetworkingBlock(new LocationNetworkNode(new Vector3i(x, 0, 0)));
+            network.addNetworkingBlock(new LocationNetworkNode(new Vector3i(x, 0, 1)));
+        }
+        final LocationNetworkNode blocked = new LocationNetworkNode(new Vector3i(1, 0, 0));
+        LocationNetworkNode start = new LocationNetworkNode(new Vector3i(0, 0, 0));
+        LocationNetworkNode end = new LocationNetworkNode(new Vector3i(3, 0, 0));
+        EdgeCostFunction blockedCost = new EdgeCostFunction() {
+            @Override
+            public int getCost(NetworkNode from, NetworkNode to) {
+                return blocked.equals(to) || blocked.equals(from) ? Integer.MAX_VALUE : 1;
+            }
+        };
+
+        NetworkPath path = network.getPath(start, end, null, blockedCost);
+        assertEquals(5, path.getDistance());
+        assertFalse(Iterables.contains(path.getPath(), blocked));
+        NetworkDistanceMap distances = network.getDistances(start, Integer.MAX_VALUE, null, blockedCost);
+        assertEquals(5, distances.getDistance(end));
+        assertEquals(4, distances.getDistance(new LocationNetworkNode(new Vector3i(2, 0, 0))));
+    }
+
+    @Test
+    public void negativeConnectionCostsAreRejected() {
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 0), allDirections));
+        network.addNetworkingBlock(toNode(new Vector3i(0, 0, 1), allDirections));
+        EdgeCostFunction negativeCost = new EdgeCostFunction() {
+            @Override
+            public int getCost(NetworkNode from, NetworkNode to) {
+                return -1;
+            }
+        };
+
+        try {
+            network.getDistances(toNode(new Vector3i(0, 0, 0), allDirections), Integer.MAX_VALUE, null, negativeCost);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void weightedPathsWithEqualCostsMatchBreadthFirstSearch() {
+        Random random = new Random(4321);
+        List<SidedLocationNetworkNode> nodes = Lists.newArrayList();
+        for (int x = 0; x < 10; x++) {
+            for (int z = 0; z < 10; z++) {
+                if (random.nextInt(4) != 0) {
+                    SidedLocationNetworkNode node = toNode(new Vector3i(x, 0, z), allDirections);
+                    network.addNetworkingBlock(node);
+                    nodes.add(node);
+                }
+            }
+        }
+        EdgeCostFunction doubleCost = new EdgeCostFunction() {
+            @Override
+            public int getCost(NetworkNode from, NetworkNode to) {
+                return 2;
+            }
+        };
+
+        for (SidedLocationNetworkNode source : nodes.subList(0, 10)) {
+            NetworkDistanceMap breadthFirst = network.getDistances(source);
+            NetworkDistanceMap weighted = network.getDistances(source, Integer.MAX_VALUE, null, doubleCost);
+            assertEquals(breadthFirst.size(), weighted.size());
+            for (SidedLocationNetworkNode node : nodes) {
+                int distance = breadthFirst.getDistance(node);
+                assertEquals(distance == -1 ? -1 : distance * 2, weighted.getDistance(node));
+            }
+        }
+    }
 }